@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.actions
+
+import com.intellij.openapi.actionSystem.AnAction
+import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.actionSystem.ToggleAction
+import com.intellij.openapi.fileChooser.FileChooserFactory
+import com.intellij.openapi.fileChooser.FileSaverDescriptor
+import com.intellij.openapi.project.DumbAware
+import com.intellij.openapi.ui.Messages
+import com.tang.intellij.lua.search.LuaInferStats
+import java.io.IOException
+
+class RecordInferenceStatsAction : ToggleAction(), DumbAware {
+    override fun isSelected(e: AnActionEvent): Boolean {
+        val project = e.project ?: return false
+        return LuaInferStats.getInstance(project).isEnabled
+    }
+
+    override fun setSelected(e: AnActionEvent, state: Boolean) {
+        val project = e.project ?: return
+        LuaInferStats.getInstance(project).isEnabled = state
+    }
+
+    override fun update(e: AnActionEvent) {
+        super.update(e)
+        e.presentation.isEnabled = e.project != null
+    }
+}
+
+class ExportInferenceStatsAction : AnAction(), DumbAware {
+    override fun actionPerformed(event: AnActionEvent) {
+        val project = event.project ?: return
+        val json = LuaInferStats.getInstance(project).toJson()
+        val descriptor = FileSaverDescriptor("Export Type Inference Statistics", "Save a JSON snapshot of type inference statistics", "json")
+        val fileWrapper = FileChooserFactory.getInstance().createSaveFileDialog(descriptor, project).save("luanalysis-inference-stats.json") ?: return
+
+        try {
+            fileWrapper.file.writeText(json)
+        } catch (e: IOException) {
+            Messages.showErrorDialog(project, e.message, "Export Type Inference Statistics")
+        }
+    }
+
+    override fun update(e: AnActionEvent) {
+        e.presentation.isEnabled = e.project != null
+    }
+}
+
+class ResetInferenceStatsAction : AnAction(), DumbAware {
+    override fun actionPerformed(event: AnActionEvent) {
+        val project = event.project ?: return
+        LuaInferStats.getInstance(project).reset()
+    }
+
+    override fun update(e: AnActionEvent) {
+        e.presentation.isEnabled = e.project != null
+    }
+}
@@ -32,7 +32,7 @@ class LargerFileAnnotator : Annotator {
             val fileSize = StringUtil.formatFileSize(file.length)
             annotationHolder.newAnnotation(
                     HighlightSeverity.WARNING,
-                    "The file size ($fileSize) exceeds configured limit ($fileLimit). Code insight features are not available."
+                    "The file size ($fileSize) exceeds configured limit ($fileLimit). Only top-level declarations are indexed."
             ).fileLevel().create()
         }
     }
@@ -28,6 +28,7 @@ import com.intellij.openapi.editor.markup.SeparatorPlacement
 import com.intellij.openapi.progress.ProgressManager
 import com.intellij.openapi.util.TextRange
 import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiNamedElement
 import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.util.FunctionUtil
@@ -37,8 +38,10 @@ import com.tang.intellij.lua.lang.LuaIcons
 import com.tang.intellij.lua.psi.*
 import com.tang.intellij.lua.psi.search.LuaClassInheritorsSearch
 import com.tang.intellij.lua.psi.search.LuaOverridingMethodsSearch
+import com.tang.intellij.lua.search.LuaClassHierarchyCache
 import com.tang.intellij.lua.search.SearchContext
 import com.tang.intellij.lua.stubs.index.LuaClassMemberIndex
+import com.tang.intellij.lua.ty.ITyClass
 import com.tang.intellij.lua.ty.TyClass
 import com.tang.intellij.lua.ty.guessParentClass
 
@@ -51,36 +54,67 @@ class LuaLineMarkerProvider : LineMarkerProvider {
     private val daemonSettings = DaemonCodeAnalyzerSettings.getInstance()
     private val colorsManager = EditorColorsManager.getInstance()
 
-    private fun collectNavigationMarkers(element: PsiElement, result: MutableCollection<in LineMarkerInfo<*>>) {
+    /**
+     * The hierarchy of a class whose methods are being marked. Ancestors and (deep) inheritors are looked up once per class, rather than
+     * once per method.
+     */
+    private class ClassHierarchy(val type: ITyClass, val context: SearchContext) {
+        private val inheritors by lazy {
+            val project = context.project
+            LuaClassInheritorsSearch.search(GlobalSearchScope.allScope(project), project, type.className, true).findAll()
+        }
+
+        private val superTypes by lazy {
+            LuaClassHierarchyCache.getInstance(context.project).getAncestors(context, type).asSequence()
+                .takeWhile { it is TyClass }
+                .map { it as TyClass }
+                .toList()
+        }
+
+        fun findSuperMethod(methodName: String): Pair<TyClass, LuaTypeMethod<*>>? {
+            for (superType in superTypes) {
+                ProgressManager.checkCanceled()
+                val superMethod = LuaClassMemberIndex.findMethod(context, superType, methodName)
+                if (superMethod != null) {
+                    return Pair(superType, superMethod)
+                }
+            }
+            return null
+        }
+
+        val hasInheritors: Boolean
+            get() = inheritors.isNotEmpty()
+
+        fun isOverridden(methodName: String): Boolean {
+            return inheritors.any {
+                ProgressManager.checkCanceled()
+                LuaClassMemberIndex.findMethod(context, it.type, methodName, false) != null
+            }
+        }
+    }
+
+    private fun collectNavigationMarkers(element: PsiElement, hierarchies: MutableMap<String, ClassHierarchy>, result: MutableCollection<in LineMarkerInfo<*>>) {
         if (element is LuaClassMethodName) {
             val methodDef = PsiTreeUtil.getParentOfType(element, LuaTypeMethod::class.java)!!
             val methodName = methodDef.name
             val project = methodDef.project
             val context = SearchContext.get(project)
             val type = methodDef.guessParentClass(context)
+            val hierarchy = type?.let { hierarchies.getOrPut(it.className) { ClassHierarchy(it, context) } }
 
             //OverridingMethod
             val classMethodNameId = element.id
-            if (type != null && methodName != null && classMethodNameId != null) {
-                var superType = type.getSuperType(context)
-
-                while (superType != null && superType is TyClass) {
-                    ProgressManager.checkCanceled()
-                    val superMethod = LuaClassMemberIndex.findMethod(context, superType, methodName)
-                    if (superMethod != null) {
-                        val builder = NavigationGutterIconBuilder.create(AllIcons.Gutter.OverridingMethod)
-                                .setTargets(superMethod)
-                                .setTooltipText("Overrides function in ${superType.className}")
-                        result.add(builder.createLineMarkerInfo(classMethodNameId))
-                        break
-                    }
-                    superType = superType.getSuperType(context)
+            if (hierarchy != null && methodName != null && classMethodNameId != null) {
+                hierarchy.findSuperMethod(methodName)?.let { (superType, superMethod) ->
+                    val builder = NavigationGutterIconBuilder.create(AllIcons.Gutter.OverridingMethod)
+                            .setTargets(superMethod)
+                            .setTooltipText("Overrides function in ${superType.className}")
+                    result.add(builder.createLineMarkerInfo(classMethodNameId))
                 }
             }
 
             // OverridenMethod
-            val search = LuaOverridingMethodsSearch.search(methodDef)
-            if (search.findFirst() != null && classMethodNameId != null) {
+            if (hierarchy != null && methodName != null && classMethodNameId != null && hierarchy.isOverridden(methodName)) {
                 result.add(LineMarkerInfo(
                         classMethodNameId,
                         classMethodNameId.textRange,
@@ -114,8 +148,8 @@ class LuaLineMarkerProvider : LineMarkerProvider {
         } else if (element is LuaDocTagClass) {
             val classType = element.type
             val project = element.getProject()
-            val query = LuaClassInheritorsSearch.search(GlobalSearchScope.allScope(project), project, classType.className)
-            if (query.findFirst() != null) {
+            val hierarchy = hierarchies.getOrPut(classType.className) { ClassHierarchy(classType, SearchContext.get(project)) }
+            if (hierarchy.hasInheritors) {
                 val id = element.id
                 result.add(LineMarkerInfo(id,
                         id.textRange,
@@ -144,7 +178,7 @@ class LuaLineMarkerProvider : LineMarkerProvider {
             result.add(classIcon)
         } else if (element is LuaCallExpr) {
             val expr = element.expression
-            val reference = expr.reference
+            val reference = if (isPossiblyRecursive(element, expr)) expr.reference else null
             if (reference != null) {
                 val resolve = reference.resolve()
                 if (resolve != null) {
@@ -184,14 +218,34 @@ class LuaLineMarkerProvider : LineMarkerProvider {
         }
     }
 
+    /**
+     * A call can only be recursive if it's named the same as a function it's called from, in which case it's worth resolving.
+     */
+    private fun isPossiblyRecursive(call: LuaCallExpr, expr: LuaExpression<*>): Boolean {
+        val calleeName = (expr as? PsiNamedElement)?.name ?: return false
+        var bodyOwner = PsiTreeUtil.getParentOfType(call, LuaFuncBodyOwner::class.java)
+
+        while (bodyOwner != null) {
+            if ((bodyOwner as? PsiNamedElement)?.name == calleeName) {
+                return true
+            }
+            bodyOwner = PsiTreeUtil.getParentOfType(bodyOwner, LuaFuncBodyOwner::class.java)
+        }
+
+        return false
+    }
+
     override fun getLineMarkerInfo(psiElement: PsiElement): LineMarkerInfo<*>? {
         return null
     }
 
     override fun collectSlowLineMarkers(elements: MutableList<out PsiElement>, result: MutableCollection<in LineMarkerInfo<*>>) {
+        // Shared by all methods of a class in this pass, the daemon passes all elements of the file (visible range first).
+        val hierarchies = mutableMapOf<String, ClassHierarchy>()
+
         for (element in elements) {
             ProgressManager.checkCanceled()
-            collectNavigationMarkers(element, result)
+            collectNavigationMarkers(element, hierarchies, result)
         }
     }
 }
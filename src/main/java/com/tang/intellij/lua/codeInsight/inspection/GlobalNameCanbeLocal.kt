@@ -20,10 +20,10 @@ import com.intellij.codeInspection.*
 import com.intellij.openapi.project.Project
 import com.intellij.psi.PsiElementVisitor
 import com.intellij.psi.search.GlobalSearchScope
-import com.intellij.psi.search.searches.ReferencesSearch
 import com.tang.intellij.lua.lang.LuaFileType
 import com.tang.intellij.lua.psi.*
 import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.stubs.index.LuaGlobalNameIndex
 
 class GlobalNameCanBeLocal : LocalInspectionTool() {
     override fun buildVisitor(holder: ProblemsHolder, isOnTheFly: Boolean, session: LocalInspectionToolSession): PsiElementVisitor {
@@ -41,8 +41,7 @@ class GlobalNameCanBeLocal : LocalInspectionTool() {
                     if (resolve == null) {
                         val scope = GlobalSearchScope.allScope(o.project)
                         val searchScope = scope.intersectWith(GlobalSearchScope.notScope(GlobalSearchScope.fileScope(o.containingFile)))
-                        val query = ReferencesSearch.search(o, searchScope)
-                        var canLocal = query.findFirst() == null
+                        var canLocal = !LuaGlobalNameIndex.isReferenced(name, searchScope)
                         if (canLocal) {
                             canLocal = o.reference?.resolve() == null
                         }
@@ -19,17 +19,24 @@ package com.tang.intellij.lua.codeInsight.inspection
 import com.intellij.codeInspection.LocalInspectionToolSession
 import com.intellij.codeInspection.ProblemsHolder
 import com.intellij.psi.PsiElementVisitor
-import com.tang.intellij.lua.psi.LuaNameExpr
-import com.tang.intellij.lua.psi.LuaVisitor
-import com.tang.intellij.lua.psi.resolve
+import com.tang.intellij.lua.psi.*
 import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.stubs.index.LuaGlobalNameIndex
 
 class UndeclaredVariableInspection : StrictInspection() {
     override fun buildVisitor(myHolder: ProblemsHolder, isOnTheFly: Boolean, session: LocalInspectionToolSession): PsiElementVisitor =
             object : LuaVisitor() {
                 override fun visitNameExpr(o: LuaNameExpr) {
                     super.visitNameExpr(o)
-                    val res = resolve(SearchContext.get(o.project), o)
+                    val context = SearchContext.get(o.project)
+
+                    // A global assigned anywhere in the project is declared, no need to resolve its declaration.
+                    if (!context.isDumb && o.getModuleName(context) == null && resolveInFile(context, o.name, o) == null
+                            && LuaGlobalNameIndex.isWritten(o.name, context.scope)) {
+                        return
+                    }
+
+                    val res = resolve(context, o)
 
                     if (res == null) {
                         myHolder.registerProblem(o, "Undeclared variable '%s'.".format(o.text))
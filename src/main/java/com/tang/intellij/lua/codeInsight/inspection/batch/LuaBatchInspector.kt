@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.codeInsight.inspection.batch
+
+import com.intellij.codeHighlighting.HighlightDisplayLevel
+import com.intellij.codeInspection.*
+import com.intellij.codeInspection.ex.LocalInspectionToolWrapper
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.project.guessProjectDir
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.profile.codeInspection.InspectionProjectProfileManager
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiManager
+import com.intellij.psi.SyntaxTraverser
+import com.intellij.psi.search.FileTypeIndex
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.util.concurrency.AppExecutorUtil
+import com.tang.intellij.lua.lang.LuaFileType
+import com.tang.intellij.lua.lang.LuaLanguage
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorCompletionService
+
+/**
+ * Runs Lua inspections over many files without an editor, distributing files across a pool of workers.
+ *
+ * Search contexts and recursion guards are thread-local, so each worker infers independently, whilst inferred types, subtype checks and
+ * class hierarchies are shared between workers by the project-level caches (see [com.tang.intellij.lua.search.LuaInferCache]).
+ */
+class LuaBatchInspector(private val project: Project, private val threads: Int = Runtime.getRuntime().availableProcessors()) {
+
+    class Inspection(val shortName: String, val displayName: String, val level: HighlightDisplayLevel, val tool: LocalInspectionTool)
+
+    data class Problem(
+        val file: String,
+        val line: Int,
+        val column: Int,
+        val length: Int,
+        val inspection: String,
+        val level: String,
+        val message: String
+    )
+
+    data class FileTiming(val file: String, val millis: Long)
+
+    data class Report(
+        val project: String,
+        val threads: Int,
+        val fileCount: Int,
+        val elapsedMillis: Long,
+        val inspections: List<String>,
+        val problems: List<Problem>,
+        val slowestFiles: List<FileTiming>
+    )
+
+    private class FileResult(val problems: List<Problem>, val timing: FileTiming)
+
+    companion object {
+        private const val SLOWEST_FILE_COUNT = 20
+
+        /**
+         * Returns the Lua inspections enabled in the project's current inspection profile, optionally restricted to [shortNames].
+         */
+        fun enabledInspections(project: Project, shortNames: Collection<String>? = null): List<Inspection> {
+            val profile = InspectionProjectProfileManager.getInstance(project).currentProfile
+
+            return profile.getAllEnabledInspectionTools(project).mapNotNull { tools ->
+                val wrapper = tools.tool as? LocalInspectionToolWrapper
+
+                if (wrapper == null || wrapper.language != LuaLanguage.INSTANCE.id || (shortNames != null && wrapper.shortName !in shortNames)) {
+                    null
+                } else {
+                    Inspection(wrapper.shortName, wrapper.displayName, tools.defaultState.level, wrapper.tool)
+                }
+            }
+        }
+
+        /**
+         * Returns the Lua files within the project's content.
+         */
+        fun projectFiles(project: Project): List<VirtualFile> {
+            return ReadAction.compute<List<VirtualFile>, RuntimeException> {
+                FileTypeIndex.getFiles(LuaFileType.INSTANCE, GlobalSearchScope.projectScope(project)).sortedBy { it.path }
+            }
+        }
+    }
+
+    private fun relativePath(file: VirtualFile): String {
+        val baseDir = project.guessProjectDir()
+        return baseDir?.let { VfsUtilCore.getRelativePath(file, it) } ?: file.path
+    }
+
+    private fun inspectFile(psiFile: PsiFile, path: String, inspections: List<Inspection>): List<Problem> {
+        val manager = InspectionManager.getInstance(project)
+        val document = PsiDocumentManager.getInstance(project).getDocument(psiFile)
+        val elements = SyntaxTraverser.psiTraverser(psiFile).toList()
+        val problems = mutableListOf<Problem>()
+
+        inspections.forEach { inspection ->
+            ProgressManager.checkCanceled()
+
+            val holder = ProblemsHolder(manager, psiFile, false)
+            val session = LocalInspectionToolSession(psiFile, 0, psiFile.textLength)
+            val visitor = inspection.tool.buildVisitor(holder, false, session)
+
+            inspection.tool.inspectionStarted(session, false)
+            elements.forEach { it.accept(visitor) }
+            inspection.tool.inspectionFinished(session, holder)
+
+            holder.results.forEach { descriptor ->
+                val element = descriptor.psiElement
+
+                if (element != null && !inspection.tool.isSuppressedFor(element)) {
+                    val range = descriptor.textRangeInElement?.shiftRight(element.textRange.startOffset) ?: element.textRange
+                    val line = document?.getLineNumber(range.startOffset) ?: 0
+                    val column = range.startOffset - (document?.getLineStartOffset(line) ?: 0)
+
+                    problems.add(Problem(
+                        path,
+                        line + 1,
+                        column + 1,
+                        range.length,
+                        inspection.shortName,
+                        inspection.level.name,
+                        ProblemDescriptorUtil.renderDescriptionMessage(descriptor, element)
+                    ))
+                }
+            }
+        }
+
+        return problems
+    }
+
+    private fun inspect(file: VirtualFile, inspections: List<Inspection>, indicator: ProgressIndicator): FileResult {
+        val path = relativePath(file)
+        val start = System.currentTimeMillis()
+
+        val problems = ProgressManager.getInstance().runProcess<List<Problem>>({
+            ReadAction.compute<List<Problem>, RuntimeException> {
+                val psiFile = if (file.isValid) PsiManager.getInstance(project).findFile(file) else null
+                psiFile?.let { inspectFile(it, path, inspections) } ?: emptyList()
+            }
+        }, indicator)
+
+        return FileResult(problems, FileTiming(path, System.currentTimeMillis() - start))
+    }
+
+    /**
+     * Inspects [files] with [inspections]. Must not be called from within a read action, workers acquire their own.
+     */
+    fun run(files: List<VirtualFile>, inspections: List<Inspection>, indicator: ProgressIndicator = EmptyProgressIndicator()): Report {
+        val start = System.currentTimeMillis()
+        val parallelism = Math.max(1, Math.min(threads, files.size))
+        val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Luanalysis Inspection", parallelism)
+        val completion = ExecutorCompletionService<FileResult>(executor)
+        val problems = mutableListOf<Problem>()
+        val timings = mutableListOf<FileTiming>()
+
+        try {
+            files.forEach { file ->
+                completion.submit { inspect(file, inspections, indicator) }
+            }
+
+            for (completed in files.indices) {
+                val result = try {
+                    completion.take().get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+
+                problems.addAll(result.problems)
+                timings.add(result.timing)
+
+                indicator.checkCanceled()
+                indicator.fraction = (completed + 1).toDouble() / files.size
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+
+        // Files complete in any order, results are sorted so reports are stable between runs.
+        problems.sortWith(compareBy({ it.file }, { it.line }, { it.column }, { it.inspection }))
+
+        return Report(
+            project.name,
+            parallelism,
+            files.size,
+            System.currentTimeMillis() - start,
+            inspections.map { it.shortName },
+            problems,
+            timings.sortedByDescending { it.millis }.take(SLOWEST_FILE_COUNT)
+        )
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.codeInsight.inspection.batch
+
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import com.intellij.codeHighlighting.HighlightDisplayLevel
+import java.io.Writer
+
+/**
+ * Serializes a [LuaBatchInspector.Report] as either plain JSON or SARIF 2.1.0, the latter being understood by most CI code scanning tools.
+ */
+object LuaBatchReportWriter {
+    enum class Format {
+        JSON,
+        SARIF
+    }
+
+    private const val SARIF_SCHEMA = "https://json.schemastore.org/sarif-2.1.0.json"
+    private const val SARIF_VERSION = "2.1.0"
+
+    private val gson = GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create()
+
+    fun write(report: LuaBatchInspector.Report, format: Format, writer: Writer) {
+        when (format) {
+            Format.JSON -> gson.toJson(report, writer)
+            Format.SARIF -> gson.toJson(toSarif(report), writer)
+        }
+    }
+
+    private fun sarifLevel(level: String): String {
+        return when (level) {
+            HighlightDisplayLevel.ERROR.name -> "error"
+            HighlightDisplayLevel.WARNING.name, HighlightDisplayLevel.WEAK_WARNING.name -> "warning"
+            else -> "note"
+        }
+    }
+
+    private fun toSarif(report: LuaBatchInspector.Report): JsonObject {
+        val rules = JsonArray()
+
+        report.inspections.forEach { shortName ->
+            rules.add(JsonObject().apply { addProperty("id", shortName) })
+        }
+
+        val results = JsonArray()
+
+        report.problems.forEach { problem ->
+            val region = JsonObject().apply {
+                addProperty("startLine", problem.line)
+                addProperty("startColumn", problem.column)
+                addProperty("endColumn", problem.column + problem.length)
+            }
+
+            val location = JsonObject().apply {
+                add("physicalLocation", JsonObject().apply {
+                    add("artifactLocation", JsonObject().apply { addProperty("uri", problem.file) })
+                    add("region", region)
+                })
+            }
+
+            results.add(JsonObject().apply {
+                addProperty("ruleId", problem.inspection)
+                addProperty("level", sarifLevel(problem.level))
+                add("message", JsonObject().apply { addProperty("text", problem.message) })
+                add("locations", JsonArray().apply { add(location) })
+            })
+        }
+
+        val run = JsonObject().apply {
+            add("tool", JsonObject().apply {
+                add("driver", JsonObject().apply {
+                    addProperty("name", "Luanalysis")
+                    add("rules", rules)
+                })
+            })
+            add("results", results)
+        }
+
+        return JsonObject().apply {
+            addProperty("\$schema", SARIF_SCHEMA)
+            addProperty("version", SARIF_VERSION)
+            add("runs", JsonArray().apply { add(run) })
+        }
+    }
+}
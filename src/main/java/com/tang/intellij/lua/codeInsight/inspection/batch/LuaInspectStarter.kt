@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.codeInsight.inspection.batch
+
+import com.intellij.ide.impl.ProjectUtil
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ApplicationStarter
+import com.intellij.openapi.application.ex.ApplicationEx
+import com.intellij.openapi.application.ex.ApplicationManagerEx
+import com.intellij.openapi.project.DumbService
+import java.io.File
+
+/**
+ * Headless entry point for batch inspection, for use on CI:
+ *
+ * `<ide> luanalysis-inspect <project-path> <output-file> [--format=json|sarif] [--threads=N] [--inspections=shortName,...]`
+ *
+ * Runs the Lua inspections enabled in the project's inspection profile (or those named) across every Lua file in the project.
+ */
+class LuaInspectStarter : ApplicationStarter {
+    private class Options(
+        val projectPath: String,
+        val outputPath: String,
+        val format: LuaBatchReportWriter.Format,
+        val threads: Int,
+        val inspections: Set<String>?
+    )
+
+    override fun getCommandName() = COMMAND_NAME
+
+    private fun parseOptions(args: List<String>): Options? {
+        // The first argument is the command name.
+        val positional = args.drop(1).filter { !it.startsWith("--") }
+        val named = args.drop(1).filter { it.startsWith("--") }.associate {
+            val separator = it.indexOf('=')
+            if (separator > 0) it.substring(2, separator) to it.substring(separator + 1) else it.substring(2) to ""
+        }
+
+        if (positional.size != 2) {
+            return null
+        }
+
+        val format = when (named["format"]?.toLowerCase() ?: "json") {
+            "json" -> LuaBatchReportWriter.Format.JSON
+            "sarif" -> LuaBatchReportWriter.Format.SARIF
+            else -> return null
+        }
+
+        val threads = named["threads"]?.toIntOrNull() ?: Runtime.getRuntime().availableProcessors()
+        val inspections = named["inspections"]?.split(',')?.map { it.trim() }?.filter { it.isNotEmpty() }?.toSet()
+
+        return Options(positional[0], positional[1], format, Math.max(threads, 1), inspections)
+    }
+
+    private fun exit(exitCode: Int) {
+        ApplicationManager.getApplication().invokeLater {
+            ApplicationManagerEx.getApplicationEx().exit(ApplicationEx.FORCE_EXIT or ApplicationEx.EXIT_CONFIRMED, exitCode)
+        }
+    }
+
+    override fun main(args: List<String>) {
+        val options = parseOptions(args)
+
+        if (options == null) {
+            System.err.println(USAGE)
+            exit(1)
+            return
+        }
+
+        val project = ProjectUtil.openOrImport(File(options.projectPath).absolutePath, null, false)
+
+        if (project == null) {
+            System.err.println("Unable to open project: ${options.projectPath}")
+            exit(1)
+            return
+        }
+
+        ApplicationManager.getApplication().executeOnPooledThread {
+            val exitCode = try {
+                DumbService.getInstance(project).waitForSmartMode()
+
+                val inspections = LuaBatchInspector.enabledInspections(project, options.inspections)
+                val files = LuaBatchInspector.projectFiles(project)
+                val report = LuaBatchInspector(project, options.threads).run(files, inspections)
+
+                File(options.outputPath).bufferedWriter().use {
+                    LuaBatchReportWriter.write(report, options.format, it)
+                }
+
+                println("Inspected ${report.fileCount} files with ${report.threads} threads in ${report.elapsedMillis}ms, ${report.problems.size} problems found.")
+                0
+            } catch (e: Exception) {
+                e.printStackTrace()
+                1
+            }
+
+            exit(exitCode)
+        }
+    }
+
+    companion object {
+        const val COMMAND_NAME = "luanalysis-inspect"
+
+        private const val USAGE = "Usage: $COMMAND_NAME <project-path> <output-file> [--format=json|sarif] [--threads=N] [--inspections=shortName,...]"
+    }
+}
@@ -363,7 +363,7 @@ fun getType(luaDocGenericTy: LuaDocGenericTy): ITy {
             resolveType(luaDocGenericTy.typeRef, it)
         }
     } ?: TyLazyClass(getName(luaDocGenericTy.typeRef), luaDocGenericTy)
-    return TyGeneric(paramTys, baseTy)
+    return TyFactory.generic(paramTys, baseTy)
 }
 
 fun getType(luaDocParTy: LuaDocParTy): ITy {
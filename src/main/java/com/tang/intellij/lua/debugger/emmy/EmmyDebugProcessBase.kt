@@ -16,7 +16,6 @@
 
 package com.tang.intellij.lua.debugger.emmy
 
-import com.google.gson.Gson
 import com.intellij.execution.ui.ConsoleViewContentType
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.xdebugger.XDebugSession
@@ -30,6 +29,7 @@ import com.tang.intellij.lua.debugger.*
 import com.tang.intellij.lua.psi.LuaFileManager
 import com.tang.intellij.lua.psi.LuaFileUtil
 import java.io.File
+import java.io.Reader
 
 abstract class EmmyDebugProcessBase(session: XDebugSession) : LuaDebugProcess(session), ITransportHandler {
     private val editorsProvider = LuaDebuggerEditorsProvider()
@@ -80,18 +80,18 @@ abstract class EmmyDebugProcessBase(session: XDebugSession) : LuaDebugProcess(se
         session?.stop()
     }
 
-    override fun onReceiveMessage(cmd: MessageCMD, json: String) {
+    override fun onReceiveMessage(cmd: MessageCMD, json: Reader) {
         when (cmd) {
             MessageCMD.BreakNotify -> {
-                val data = Gson().fromJson(json, BreakNotify::class.java)
+                val data = messageGson.fromJson(json, BreakNotify::class.java)
                 onBreak(data)
             }
             MessageCMD.EvalRsp -> {
-                val rsp = Gson().fromJson(json, EvalRsp::class.java)
+                val rsp = messageGson.fromJson(json, EvalRsp::class.java)
                 onEvalRsp(rsp)
             }
             MessageCMD.LogNotify -> {
-                val notify = Gson().fromJson(json, LogNotify::class.java)
+                val notify = messageGson.fromJson(json, LogNotify::class.java)
                 println(notify.message, LogConsoleType.NORMAL, ConsoleViewContentType.SYSTEM_OUTPUT)
             }
             else -> {
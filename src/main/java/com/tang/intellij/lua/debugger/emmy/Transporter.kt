@@ -37,8 +37,111 @@ import java.util.concurrent.LinkedBlockingQueue
 
 class StopSign : Message(MessageCMD.Unknown)
 
+private class ExposedByteArrayOutputStream : ByteArrayOutputStream(1024) {
+    val buffer: ByteArray get() = buf
+}
+
+/**
+ * Frames messages of the form "<cmd>\n<json>\n" from a single growable byte buffer. Neither the command nor JSON are decoded to
+ * intermediate Strings, JSON is instead exposed as a Reader over the bytes within the buffer.
+ */
+class MessageFrameReader(initialCapacity: Int = 64 * 1024) {
+    private var buffer = ByteBuffer.allocate(initialCapacity)
+
+    // Offset of the first unconsumed byte
+    private var start = 0
+
+    // Offset from which to continue searching for a newline, avoids rescanning partially received payloads
+    private var scanFrom = 0
+
+    // Offset of the newline terminating the current command, or -1 if not yet received
+    private var cmdEnd = -1
+
+    /**
+     * Reads more bytes into the buffer, compacting or growing it as necessary. Returns false at the end of the stream.
+     */
+    fun fill(read: (ByteBuffer) -> Int): Boolean {
+        if (start > 0) {
+            val length = buffer.position() - start
+            System.arraycopy(buffer.array(), start, buffer.array(), 0, length)
+            buffer.position(length)
+            scanFrom -= start
+            if (cmdEnd >= 0) {
+                cmdEnd -= start
+            }
+            start = 0
+        }
+
+        if (!buffer.hasRemaining()) {
+            val grown = ByteBuffer.allocate(buffer.capacity() * 2)
+            grown.put(buffer.array(), 0, buffer.position())
+            buffer = grown
+        }
+
+        return read(buffer) >= 0
+    }
+
+    private fun indexOfNewline(from: Int): Int {
+        val bytes = buffer.array()
+        val end = buffer.position()
+        for (i in from until end) {
+            if (bytes[i] == '\n'.code.toByte()) {
+                return i
+            }
+        }
+        scanFrom = end
+        return -1
+    }
+
+    private fun parseCmd(from: Int, to: Int): Int {
+        val bytes = buffer.array()
+        var cmd = 0
+        for (i in from until to) {
+            val b = bytes[i].toInt()
+            if (b in '0'.code..'9'.code) {
+                cmd = cmd * 10 + (b - '0'.code)
+            } else if (b != '\r'.code && b != ' '.code) {
+                throw IOException("Malformed message command")
+            }
+        }
+        return cmd
+    }
+
+    /**
+     * Passes the next complete message (if any) to [process]. Returns false if no complete message is buffered.
+     */
+    fun next(process: (cmd: MessageCMD, json: Reader) -> Unit): Boolean {
+        if (cmdEnd < 0) {
+            cmdEnd = indexOfNewline(maxOf(start, scanFrom))
+            if (cmdEnd < 0) {
+                return false
+            }
+            scanFrom = cmdEnd + 1
+        }
+
+        val jsonEnd = indexOfNewline(scanFrom)
+        if (jsonEnd < 0) {
+            return false
+        }
+
+        val cmd = MessageCMD.fromOrdinal(parseCmd(start, cmdEnd))
+        val jsonStart = cmdEnd + 1
+        val json = InputStreamReader(ByteArrayInputStream(buffer.array(), jsonStart, jsonEnd - jsonStart), Charsets.UTF_8)
+
+        start = jsonEnd + 1
+        scanFrom = start
+        cmdEnd = -1
+
+        process(cmd, json)
+        return true
+    }
+}
+
 interface ITransportHandler {
-    fun onReceiveMessage(cmd: MessageCMD, json: String)
+    /**
+     * [json] reads directly from the transport's receive buffer, so must be consumed before returning.
+     */
+    fun onReceiveMessage(cmd: MessageCMD, json: Reader)
     fun onDisconnect()
     fun onConnect(suc: Boolean)
 }
@@ -76,7 +179,7 @@ abstract class Transporter {
         logger?.println("Disconnected.", LogConsoleType.NORMAL, ConsoleViewContentType.SYSTEM_OUTPUT)
     }
 
-    protected fun onReceiveMessage(type: MessageCMD, json: String) {
+    protected fun onReceiveMessage(type: MessageCMD, json: Reader) {
         try {
             handler?.onReceiveMessage(type, json)
         } catch (e: Exception) {
@@ -102,37 +205,64 @@ abstract class SocketChannelTransporter : Transporter() {
         return socket?.socket()?.getInputStream()
     }
 
-    protected open fun write(ba: ByteArray) {
-        socket?.write(ByteBuffer.wrap(ba))
+    /**
+     * Reads available bytes into [buffer], returning the number of bytes read, or -1 at the end of the stream.
+     */
+    protected open fun read(buffer: ByteBuffer): Int {
+        val channel = socket
+
+        if (channel != null) {
+            return channel.read(buffer)
+        }
+
+        val iss = getInputStream() ?: return -1
+        val count = iss.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())
+
+        if (count > 0) {
+            buffer.position(buffer.position() + count)
+        }
+
+        return count
+    }
+
+    protected open fun write(ba: ByteArray, length: Int) {
+        val buffer = ByteBuffer.wrap(ba, 0, length)
+        while (buffer.hasRemaining()) {
+            socket?.write(buffer) ?: return
+        }
     }
 
     private fun doReceive() {
-        val iss = getInputStream() ?: return
-        val reader = BufferedReader(InputStreamReader(iss, "UTF-8"))
-        while (true) {
-            try {
-                val cmdValue = reader.readLine()
-                val cmd = cmdValue.toInt()
-                val json = reader.readLine()
-                val type = MessageCMD.values().find { it.ordinal == cmd }
-                onReceiveMessage(type ?: MessageCMD.Unknown, json)
-            } catch (e: Exception) {
-                onDisconnect()
-                break
+        val frameReader = MessageFrameReader()
+        try {
+            while (frameReader.fill(this::read)) {
+                while (frameReader.next { cmd, json -> onReceiveMessage(cmd, json) }) {
+                    // Dispatch all complete messages in the buffer
+                }
             }
+        } catch (e: Exception) {
+            // Connection closed or malformed message
         }
+        onDisconnect()
         send(StopSign())
         println(">>> stop receive")
     }
 
     private fun doSend() {
+        val bytes = ExposedByteArrayOutputStream()
+        val writer = OutputStreamWriter(bytes, Charsets.UTF_8)
         while(true) {
             val msg = messageQueue.take()
             if (msg is StopSign)
                 break
             try {
-                val json = msg.toJSON()
-                write("${msg.cmd}\n$json\n".toByteArray())
+                bytes.reset()
+                writer.write(msg.cmd.toString())
+                writer.write('\n'.code)
+                msg.writeJSON(writer)
+                writer.write('\n'.code)
+                writer.flush()
+                write(bytes.buffer, bytes.size())
             } catch (e: IOException) {
                 break
             }
@@ -237,8 +367,8 @@ class PipelineClientTransporter(val name: String) : SocketChannelTransporter() {
         return pipe?.getInputStream()
     }
 
-    override fun write(ba: ByteArray) {
-        pipe?.getOutputStream()?.write(ba)
+    override fun write(ba: ByteArray, length: Int) {
+        pipe?.getOutputStream()?.write(ba, 0, length)
     }
 
     override fun close() {
@@ -284,8 +414,8 @@ class PipelineServerTransporter(val name: String) : SocketChannelTransporter() {
         return client?.getInputStream()
     }
 
-    override fun write(ba: ByteArray) {
-        client?.getOutputStream()?.write(ba)
+    override fun write(ba: ByteArray, length: Int) {
+        client?.getOutputStream()?.write(ba, 0, length)
     }
 
     override fun close() {
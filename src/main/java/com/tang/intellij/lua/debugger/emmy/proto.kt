@@ -19,6 +19,7 @@
 package com.tang.intellij.lua.debugger.emmy
 
 import com.google.gson.Gson
+import java.io.Writer
 
 enum class MessageCMD {
     Unknown,
@@ -48,19 +49,38 @@ enum class MessageCMD {
     StartHookReq,
     StartHookRsp,
 
-    LogNotify,
+    LogNotify;
+
+    companion object {
+        private val VALUES = values()
+
+        fun fromOrdinal(ordinal: Int): MessageCMD {
+            return VALUES.getOrNull(ordinal) ?: Unknown
+        }
+    }
 }
 
+// Gson is thread-safe, so a single instance is shared by all messages.
+val messageGson = Gson()
+
 interface IMessage {
     val cmd: Int
     fun toJSON(): String
+
+    fun writeJSON(writer: Writer) {
+        writer.write(toJSON())
+    }
 }
 
 open class Message(cmdName: MessageCMD) : IMessage {
     override val cmd = cmdName.ordinal
 
     override fun toJSON(): String {
-        return Gson().toJson(this)
+        return messageGson.toJson(this)
+    }
+
+    override fun writeJSON(writer: Writer) {
+        messageGson.toJson(this, writer)
     }
 
     companion object {
@@ -25,15 +25,25 @@ import java.io.IOException
 import java.io.OutputStreamWriter
 import java.net.SocketException
 import java.nio.ByteBuffer
+import java.nio.CharBuffer
 import java.nio.channels.SocketChannel
-import java.nio.charset.Charset
-import java.util.*
+import java.nio.charset.CodingErrorAction
+import java.util.concurrent.LinkedBlockingQueue
 import java.util.regex.Pattern
 
 class MobClient(private val socketChannel: SocketChannel, private val listener: MobServerListener) {
 
+    companion object {
+        private val RESPONSE_PATTERN = Pattern.compile("(\\d+) (\\w+)( (.+))?")
+    }
+
+    @Volatile
     private var isStopped: Boolean = false
-    private val commands = LinkedList<DebugCommand>()
+    private val commands = LinkedBlockingQueue<DebugCommand>()
+    // Queued to wake the send thread when stopping
+    private val stopCommand = DefaultCommand("", 0)
+    private val responseLock = Object()
+    @Volatile
     private var currentCommandWaitForResp: DebugCommand? = null
     private var streamWriter: OutputStreamWriter? = null
     private val socket = socketChannel.socket()
@@ -50,29 +60,53 @@ class MobClient(private val socketChannel: SocketChannel, private val listener:
         }
     }
 
+    private fun awaitResponse() {
+        synchronized(responseLock) {
+            while (currentCommandWaitForResp != null && !isStopped) {
+                responseLock.wait()
+            }
+        }
+    }
+
+    private fun onResponseFinished() {
+        synchronized(responseLock) {
+            currentCommandWaitForResp = null
+            responseLock.notifyAll()
+        }
+    }
+
     private fun doSend() {
         try {
-            streamWriter = OutputStreamWriter(socket.getOutputStream(), Charset.forName("UTF-8"))
-
-            while (socket.isConnected) {
-                if (isStopped) break
-
-                var command: DebugCommand
-                while (commands.size > 0 && currentCommandWaitForResp == null) {
-                    if (currentCommandWaitForResp == null) {
-                        command = commands.poll()
-                        command.debugProcess = listener.process
-                        command.write(this)
-                        streamWriter!!.write("\n")
-                        streamWriter!!.flush()
-                        if (command.getRequireRespLines() > 0)
-                            currentCommandWaitForResp = command
-                    }
+            streamWriter = OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8)
+
+            while (socket.isConnected && !isStopped) {
+                // Blocks until a command is available, rather than polling.
+                val command = commands.take()
+
+                if (command === stopCommand) {
+                    break
+                }
+
+                // Commands are sent one at a time, each waiting for the response to the previous command.
+                awaitResponse()
+
+                if (isStopped) {
+                    break
                 }
-                Thread.sleep(5)
+
+                command.debugProcess = listener.process
+
+                // Must be set prior to writing, otherwise the response may be received before we're waiting for it.
+                if (command.getRequireRespLines() > 0)
+                    currentCommandWaitForResp = command
+
+                command.write(this)
+                streamWriter!!.write("\n")
+                streamWriter!!.flush()
             }
         } catch (e: SocketException) {
             //e.message?.let { listener.error(it) }
+        } catch (e: InterruptedException) {
         } catch (e: Exception) {
             e.message?.let { listener.error(it) }
         } finally {
@@ -82,23 +116,29 @@ class MobClient(private val socketChannel: SocketChannel, private val listener:
 
     private fun doReceive() {
         try {
-            var readSize: Int
             val bf = ByteBuffer.allocate(receiveBufferSize)
+            val chars = CharBuffer.allocate(receiveBufferSize)
+            // Decodes incrementally, multi-byte characters may be split across reads.
+            val decoder = Charsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+            val pending = StringBuilder()
+
             while (!isStopped) {
-                readSize = socketChannel.read(bf)
-                if (readSize > 0) {
-                    var begin = 0
-                    for (i in 1..readSize + 1) {
-                        if (bf[i - 1].toInt() == '\n'.toInt()) {
-                            onResp(String(bf.array(), begin, i))
-                            begin = i
-                        }
-                    }
-                    if (begin < readSize) {
-                        onResp(String(bf.array(), begin, readSize))
-                    }
-                    bf.clear()
+                if (socketChannel.read(bf) < 0) {
+                    onSocketClosed()
+                    break
                 }
+
+                bf.flip()
+                decoder.decode(bf, chars, false)
+                bf.compact()
+
+                chars.flip()
+                pending.append(chars)
+                chars.clear()
+
+                dispatch(pending)
             }
         } catch (e: IOException) {
             onSocketClosed()
@@ -107,19 +147,42 @@ class MobClient(private val socketChannel: SocketChannel, private val listener:
         }
     }
 
-    private fun onResp(data: String) {
-        val cmd = currentCommandWaitForResp
-        if (cmd != null) {
-            val eat = cmd.handle(data)
-            if (eat > 0) {
-                if (cmd.isFinished())
-                    currentCommandWaitForResp = null
+    /**
+     * Dispatches received text to the command awaiting a response, or otherwise parses complete lines as (unsolicited) responses.
+     * Incomplete lines remain in [pending] until more data is received.
+     */
+    private fun dispatch(pending: StringBuilder) {
+        while (pending.isNotEmpty()) {
+            val lineEnd = pending.indexOf("\n")
+            val cmd = currentCommandWaitForResp
+
+            if (cmd != null) {
+                // Commands buffer partial lines themselves, and may consume payloads that aren't newline terminated.
+                val segment = if (lineEnd >= 0) pending.substring(0, lineEnd + 1) else pending.toString()
+                val eat = cmd.handle(segment)
+
+                if (eat > 0) {
+                    pending.delete(0, eat)
+
+                    if (cmd.isFinished())
+                        onResponseFinished()
+
+                    continue
+                }
+            }
+
+            if (lineEnd < 0) {
                 return
             }
+
+            val line = pending.substring(0, lineEnd + 1)
+            pending.delete(0, lineEnd + 1)
+            onResp(line)
         }
+    }
 
-        val pattern = Pattern.compile("(\\d+) (\\w+)( (.+))?")
-        val matcher = pattern.matcher(data)
+    private fun onResp(data: String) {
+        val matcher = RESPONSE_PATTERN.matcher(data)
         if (matcher.find()) {
             val code = Integer.parseInt(matcher.group(1))
             //String status = matcher.group(2);
@@ -143,13 +206,14 @@ class MobClient(private val socketChannel: SocketChannel, private val listener:
             streamWriter?.write("done\n")
         } catch (ignored: IOException) {
         }
-        currentCommandWaitForResp = null
         try {
             socket.close()
         } catch (ignored: Exception) {
         }
         onClosed()
         isStopped = true
+        onResponseFinished()
+        commands.put(stopCommand)
     }
 
     private fun onClosed() {
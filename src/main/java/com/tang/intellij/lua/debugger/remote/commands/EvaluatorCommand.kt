@@ -24,6 +24,11 @@ import java.util.regex.Pattern
  * Created by tangzx on 2017/1/1.
  */
 class EvaluatorCommand(expr: String, stackLevel: Int, private val callback: Callback) : DefaultCommand("EXEC $expr --{maxlevel=1, stack=$stackLevel}", 2) {
+    companion object {
+        private val ERROR_PATTERN = Pattern.compile("(\\d+)([^\\d]+)(\\d+)")
+        private val OK_PATTERN = Pattern.compile("\\d+[^\\d]+(\\d+)")
+    }
+
     private var hasError2Process: Boolean = false
     private var dataLen: Int = 0
     private val dataBuffer = StringBuffer()
@@ -87,8 +92,7 @@ class EvaluatorCommand(expr: String, stackLevel: Int, private val callback: Call
     override fun handle(index: Int, data: String) {
         if (data.startsWith("401")) {
             hasError2Process = true
-            val pattern = Pattern.compile("(\\d+)([^\\d]+)(\\d+)")
-            val matcher = pattern.matcher(data)
+            val matcher = ERROR_PATTERN.matcher(data)
             if (matcher.find()) {
                 dataLen = matcher.group(3).toInt()
             }
@@ -101,8 +105,7 @@ class EvaluatorCommand(expr: String, stackLevel: Int, private val callback: Call
             onResult("do local _={\"\\\"400_bad_request\\\"\"};return _;end")
         }
         if (data.startsWith("200 OK")) {
-            val pattern = Pattern.compile("\\d+[^\\d]+(\\d+)")
-            val matcher = pattern.matcher(data)
+            val matcher = OK_PATTERN.matcher(data)
             if (matcher.find()) {
                 dataLen = matcher.group(1).toInt()
             }
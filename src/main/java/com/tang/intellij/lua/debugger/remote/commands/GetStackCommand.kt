@@ -30,6 +30,9 @@ import java.util.regex.Pattern
  * Created by tangzx on 2016/12/31.
  */
 class GetStackCommand : DefaultCommand("STACK --{maxlevel=0}", 1) {
+    companion object {
+        private val ERROR_PATTERN = Pattern.compile("(\\d+)([^\\d]+)(\\d+)")
+    }
 
     private var hasError: Boolean = false
     private var errorDataLen: Int = 0
@@ -52,8 +55,7 @@ class GetStackCommand : DefaultCommand("STACK --{maxlevel=0}", 1) {
     override fun handle(index: Int, data: String) {
         if (data.startsWith("401")) {
             hasError = true
-            val pattern = Pattern.compile("(\\d+)([^\\d]+)(\\d+)")
-            val matcher = pattern.matcher(data)
+            val matcher = ERROR_PATTERN.matcher(data)
             if (matcher.find()) {
                 errorDataLen = Integer.parseInt(matcher.group(3))
             }
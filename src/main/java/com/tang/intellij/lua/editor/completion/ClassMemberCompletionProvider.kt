@@ -21,8 +21,10 @@ import com.intellij.codeInsight.completion.CompletionResultSet
 import com.intellij.codeInsight.completion.PrefixMatcher
 import com.intellij.codeInsight.completion.PrioritizedLookupElement
 import com.intellij.codeInsight.lookup.LookupElement
+import com.intellij.openapi.progress.ProgressManager
 import com.tang.intellij.lua.lang.LuaIcons
 import com.tang.intellij.lua.psi.*
+import com.tang.intellij.lua.psi.search.LuaShortNamesManager
 import com.tang.intellij.lua.search.SearchContext
 import com.tang.intellij.lua.ty.*
 
@@ -128,6 +130,7 @@ open class ClassMemberCompletionProvider : LuaCompletionProvider() {
         val firstChildTy = nonGlobalChildTys.first()
         val subsequentChildTys = nonGlobalChildTys.drop(1)
         val memberSubstitutor = firstChildTy.getMemberSubstitutor(context)
+        val deferredMembers = mutableListOf<() -> Unit>()
 
         firstChildTy.processMembers(context) { curType, member ->
             val curClass = (if (curType is ITyGeneric) curType.base else curType) as? ITyClass
@@ -135,37 +138,68 @@ open class ClassMemberCompletionProvider : LuaCompletionProvider() {
             if (curClass != null) {
                 member.name?.let { memberName ->
                     if (prefixMatcher.prefixMatches(memberName) && curClass.isVisibleInScope(context.project, contextTy, member.visibility)) {
-                        var memberTy = member.guessType(context) ?: Primitives.UNKNOWN
+                        val add = add@{
+                            var memberTy = member.guessType(context) ?: Primitives.UNKNOWN
 
-                        subsequentChildTys.forEach { childTy ->
-                            if (!childTy.isGlobal) {
-                                val ty = childTy.guessMemberType(context, memberName)
+                            subsequentChildTys.forEach { childTy ->
+                                if (!childTy.isGlobal) {
+                                    val ty = childTy.guessMemberType(context, memberName)
 
-                                if (ty == null) {
-                                    return@processMembers true
-                                }
+                                    if (ty == null) {
+                                        return@add
+                                    }
 
-                                memberTy = memberTy.union(context, ty)
+                                    memberTy = memberTy.union(context, ty)
+                                }
                             }
+
+                            addMember(
+                                context,
+                                completionResultSet,
+                                member,
+                                memberSubstitutor,
+                                prefixTy,
+                                memberName,
+                                memberTy,
+                                completionMode,
+                                handlerProcessor
+                            )
                         }
 
-                        addMember(
-                            context,
-                            completionResultSet,
-                            member,
-                            memberSubstitutor,
-                            prefixTy,
-                            memberName,
-                            memberTy,
-                            completionMode,
-                            handlerProcessor
-                        )
+                        // Even when explicitly typed, the member's type in the union depends on inferring the member in the other child types.
+                        if (subsequentChildTys.isEmpty()) {
+                            addOrDefer(member, add, deferredMembers)
+                        } else {
+                            deferredMembers.add(add)
+                        }
                     }
                 }
             }
 
             true
         }
+
+        addDeferred(deferredMembers)
+    }
+
+    /**
+     * Members whose type is declared (or is that of a method's signature) are added immediately. Inferring the type of other members may
+     * require inferring arbitrary expressions, so they're added after all cheaply typed members i.e. the lookup is populated with the
+     * cheaply typed members, whilst the remaining members are still being inferred.
+     */
+    private fun addOrDefer(member: TypeMember, add: () -> Unit, deferredMembers: MutableList<() -> Unit>) {
+        if (member.isExplicitlyTyped || member is LuaTypeMethod<*>) {
+            add()
+        } else {
+            deferredMembers.add(add)
+        }
+    }
+
+    private fun addDeferred(deferredMembers: List<() -> Unit>) {
+        deferredMembers.forEach {
+            ProgressManager.checkCanceled()
+            it()
+        }
     }
 
     protected fun addClass(context: SearchContext,
@@ -175,19 +209,68 @@ open class ClassMemberCompletionProvider : LuaCompletionProvider() {
                            completionResultSet: CompletionResultSet,
                            prefixMatcher: PrefixMatcher,
                            handlerProcessor: HandlerProcessor?) {
+        val deferredMembers = mutableListOf<() -> Unit>()
+
         cls.processMembers(context) { memberClass, member ->
-            val curClass = (if (memberClass is ITyGeneric) memberClass.base else memberClass) as? ITyClass
-            if (curClass != null) {
-                val name = member.name ?: member.guessIndexType(context)?.let {
-                    if (it is TyPrimitiveLiteral && it.primitiveKind == TyPrimitiveKind.String) {
-                        it.value
-                    } else {
-                        null
-                    }
+            addClassMember(context, contextTy, memberClass, member, completionMode, completionResultSet, prefixMatcher, handlerProcessor, deferredMembers)
+            true
+        }
+
+        addDeferred(deferredMembers)
+    }
+
+    /**
+     * As [addClass], but only considers members of [cls] with the given [names], rather than processing every member of the class. Names
+     * are looked up directly, indexers aren't searched.
+     */
+    protected fun addClassMembers(context: SearchContext,
+                                  contextTy: ITy,
+                                  cls: ITyClass,
+                                  names: Array<String>,
+                                  completionMode: MemberCompletionMode,
+                                  completionResultSet: CompletionResultSet,
+                                  prefixMatcher: PrefixMatcher,
+                                  handlerProcessor: HandlerProcessor?) {
+        val deferredMembers = mutableListOf<() -> Unit>()
+        val shortNamesManager = LuaShortNamesManager.getInstance(context.project)
+        val memberSubstitutor = cls.getMemberSubstitutor(context)
+
+        names.forEach { name ->
+            ProgressManager.checkCanceled()
+
+            if (prefixMatcher.prefixMatches(name)) {
+                shortNamesManager.processMember(context, cls, name, false, true, memberSubstitutor) { memberClass, member ->
+                    addClassMember(context, contextTy, memberClass, member, completionMode, completionResultSet, prefixMatcher, handlerProcessor, deferredMembers)
+                    true
                 }
+            }
+        }
 
-                name?.let { memberName ->
-                    if (prefixMatcher.prefixMatches(memberName) && curClass.isVisibleInScope(context.project, contextTy, member.visibility)) {
+        addDeferred(deferredMembers)
+    }
+
+    private fun addClassMember(context: SearchContext,
+                               contextTy: ITy,
+                               memberClass: ITy,
+                               member: TypeMember,
+                               completionMode: MemberCompletionMode,
+                               completionResultSet: CompletionResultSet,
+                               prefixMatcher: PrefixMatcher,
+                               handlerProcessor: HandlerProcessor?,
+                               deferredMembers: MutableList<() -> Unit>) {
+        val curClass = (if (memberClass is ITyGeneric) memberClass.base else memberClass) as? ITyClass
+        if (curClass != null) {
+            val name = member.name ?: member.guessIndexType(context)?.let {
+                if (it is TyPrimitiveLiteral && it.primitiveKind == TyPrimitiveKind.String) {
+                    it.value
+                } else {
+                    null
+                }
+            }
+
+            name?.let { memberName ->
+                if (prefixMatcher.prefixMatches(memberName) && curClass.isVisibleInScope(context.project, contextTy, member.visibility)) {
+                    addOrDefer(member, {
                         addMember(context,
                             completionResultSet,
                             member,
@@ -197,10 +280,9 @@ open class ClassMemberCompletionProvider : LuaCompletionProvider() {
                             member.guessType(context) ?: Primitives.UNKNOWN,
                             completionMode,
                             handlerProcessor)
-                    }
+                    }, deferredMembers)
                 }
             }
-            true
         }
     }
 
@@ -22,6 +22,7 @@ import com.tang.intellij.lua.Constants
 import com.tang.intellij.lua.lang.LuaIcons
 import com.tang.intellij.lua.lang.LuaParserDefinition
 import com.tang.intellij.lua.psi.*
+import com.tang.intellij.lua.search.LuaGlobalSymbolTable
 import com.tang.intellij.lua.search.SearchContext
 import com.tang.intellij.lua.ty.*
 
@@ -122,7 +123,8 @@ class LocalAndGlobalCompletionProvider(private val mask: Int) : ClassMemberCompl
 
         //global
         if (has(GLOBAL_FUN) || has(GLOBAL_VAR)) {
-            addClass(context, TyClass.G, TyClass.G, MemberCompletionMode.Dot, completionResultSet, completionResultSet.prefixMatcher, null)
+            val globalNames = LuaGlobalSymbolTable.getInstance(context.project).getNames()
+            addClassMembers(context, TyClass.G, TyClass.G, globalNames, MemberCompletionMode.Dot, completionResultSet, completionResultSet.prefixMatcher, null)
         }
         //key words
         if (has(KEY_WORDS)) {
@@ -25,12 +25,14 @@ interface ILuaFileResolver {
         private val EP_NAME = ExtensionPointName.create<ILuaFileResolver>("au.com.glassechidna.luanalysis.luaFileResolver")
 
         fun findLuaFile(project: Project, shortUrl: String, extNames: Array<String>): VirtualFile? {
-            for (resolver in EP_NAME.extensions) {
-                val file = resolver.find(project, shortUrl, extNames)
-                if (file != null)
-                    return file
+            return LuaFileResolveCache.getInstance(project).find(shortUrl, extNames) {
+                for (resolver in EP_NAME.extensions) {
+                    val file = resolver.find(project, shortUrl, extNames)
+                    if (file != null)
+                        return@find file
+                }
+                null
             }
-            return null
         }
     }
 
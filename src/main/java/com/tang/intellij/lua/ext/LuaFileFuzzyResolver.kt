@@ -31,8 +31,9 @@ class LuaFileFuzzyResolver : ILuaFileResolver {
         if (fileName != null) {
             ApplicationManager.getApplication().runReadAction {
                 var perfectMatch = Int.MAX_VALUE
+                val scope = ProjectAndLibrariesScope(project)
                 for (extName in extNames) {
-                    val files = FilenameIndex.getFilesByName(project, "$fileName$extName", ProjectAndLibrariesScope(project))
+                    val files = FilenameIndex.getFilesByName(project, "$fileName$extName", scope)
                     for (file in files) {
                         val path = file.virtualFile.canonicalPath
                         if (path != null && perfectMatch > path.length && path.endsWith("$shortUrl$extName")) {
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.ext
+
+import com.intellij.ProjectTopics
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ModuleRootEvent
+import com.intellij.openapi.roots.ModuleRootListener
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.*
+import com.tang.intellij.lua.project.LuaSettings
+import com.tang.intellij.lua.project.LuaSourceRootListener
+import com.tang.intellij.lua.project.LuaSourceRootManager
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Caches the file (or lack thereof) that each module path resolves to, so that resolving a require() is a hash lookup rather than
+ * a series of index and VFS queries (one per resolver, source root and extension).
+ *
+ * Resolvers may map module paths to files arbitrarily, so the cache is discarded entirely whenever files are created, deleted, moved or
+ * renamed, or source roots or project roots change.
+ */
+class LuaFileResolveCache(private val project: Project) : Disposable {
+    companion object {
+        fun getInstance(project: Project): LuaFileResolveCache {
+            return project.getService(LuaFileResolveCache::class.java)
+        }
+    }
+
+    private data class ResolveKey(val shortUrl: String, val extNames: List<String>, val additionalSourcesRoots: List<String>)
+
+    private val cache = ConcurrentHashMap<ResolveKey, Optional<VirtualFile>>()
+
+    // Incremented whenever the cache is cleared, so that results resolved before a change aren't stored after it.
+    private val modificationCount = AtomicLong()
+
+    init {
+        val connection = project.messageBus.connect(this)
+
+        connection.subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun after(events: MutableList<out VFileEvent>) {
+                onFilesChanged(events)
+            }
+        })
+
+        connection.subscribe(ProjectTopics.PROJECT_ROOTS, object : ModuleRootListener {
+            override fun rootsChanged(event: ModuleRootEvent) {
+                clear()
+            }
+        })
+
+        connection.subscribe(LuaSourceRootManager.TOPIC, object : LuaSourceRootListener {
+            override fun onChanged() {
+                clear()
+            }
+        })
+    }
+
+    fun find(shortUrl: String, extNames: Array<String>, resolve: () -> VirtualFile?): VirtualFile? {
+        // Fuzzy resolution relies on the file name index, results computed whilst indexing may be incomplete.
+        if (DumbService.isDumb(project)) {
+            return resolve()
+        }
+
+        val key = ResolveKey(shortUrl, extNames.toList(), LuaSettings.instance.additionalSourcesRoot.toList())
+        val cached = cache[key]
+
+        if (cached != null && cached.map { it.isValid }.orElse(true)) {
+            return cached.orElse(null)
+        }
+
+        val count = modificationCount.get()
+        val file = resolve()
+        val resolved = Optional.ofNullable(file)
+
+        if (modificationCount.get() == count) {
+            cache[key] = resolved
+
+            // The cache may have been cleared after the count was checked.
+            if (modificationCount.get() != count) {
+                cache.remove(key, resolved)
+            }
+        }
+
+        return file
+    }
+
+    fun clear() {
+        modificationCount.incrementAndGet()
+        cache.clear()
+    }
+
+    private fun onFilesChanged(events: List<VFileEvent>) {
+        val affectsFiles = events.any { event ->
+            when (event) {
+                is VFileContentChangeEvent -> false
+                is VFilePropertyChangeEvent -> event.propertyName == VirtualFile.PROP_NAME
+                else -> true // Creation, copy, deletion and move events
+            }
+        }
+
+        if (affectsFiles) {
+            clear()
+        }
+    }
+
+    override fun dispose() {
+        clear()
+    }
+}
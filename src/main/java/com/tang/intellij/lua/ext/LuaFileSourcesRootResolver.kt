@@ -40,7 +40,7 @@ class LuaFileSourcesRootResolver : ILuaFileResolver {
             //将.转为/，但不处理 ..
             if (!fixedURL.contains("/")) {
                 //aa.bb -> aa/bb
-                fixedURL = fixedURL.replace("\\.".toRegex(), "/")
+                fixedURL = fixedURL.replace('.', '/')
             }
 
             fixedURL += ext
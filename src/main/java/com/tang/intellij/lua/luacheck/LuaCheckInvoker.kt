@@ -18,9 +18,10 @@ package com.tang.intellij.lua.luacheck
 
 import com.intellij.execution.configurations.GeneralCommandLine
 import com.intellij.execution.process.OSProcessHandler
+import com.intellij.execution.process.ProcessAdapter
 import com.intellij.execution.process.ProcessEvent
-import com.intellij.execution.process.ProcessListener
 import com.intellij.execution.process.ProcessNotCreatedException
+import com.intellij.execution.process.ProcessOutputTypes
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.components.ServiceManager
 import com.intellij.openapi.options.ShowSettingsUtil
@@ -34,10 +35,14 @@ import com.intellij.openapi.vfs.VirtualFileVisitor
 import com.intellij.openapi.wm.ToolWindowManager
 import com.intellij.psi.PsiFile
 import com.intellij.psi.impl.PsiManagerEx
+import com.intellij.util.concurrency.AppExecutorUtil
 import com.intellij.util.execution.ParametersListUtil
 import com.tang.intellij.lua.lang.LuaFileType
 import org.intellij.lang.annotations.Language
 import java.io.File
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.atomic.AtomicBoolean
 
 private val DEFAULT_ARGS = arrayOf("--codes", "--ranges")
 
@@ -89,6 +94,15 @@ private fun showSettingsPanel(project: Project) {
     }
 }
 
+private class LuaCheckBatch(val index: Int, val files: List<Pair<String, PsiFile>>)
+
+private class LuaCheckBatchResult(val batch: LuaCheckBatch, val records: Map<PsiFile, List<LCRecordData>>, val timeMillis: Long)
+
+@Language("RegExp")
+private val RECORD_REGEX = "(.+?):(\\d+):(\\d+)-(\\d+):(.+)".toRegex()
+
+private fun normalizePath(path: String) = path.trim().replace('\\', '/')
+
 private fun runLuaCheck(project: Project,
                         fileList: Array<Pair<String, PsiFile>>,
                         dir: VirtualFile,
@@ -96,74 +110,152 @@ private fun runLuaCheck(project: Project,
     val checkView = ServiceManager.getService(project, LuaCheckView::class.java)
     val panel = checkView.panel
     val builder = panel.builder
-    builder.clear()
+    val settings = LuaCheckSettings.getInstance()
 
-    var idx = 0
-    for ((first, second) in fileList) {
-        if (indicator.isCanceled) {
-            break
+    ApplicationManager.getApplication().invokeAndWait { builder.clear() }
+
+    val batches = fileList.toList()
+        .chunked(Math.max(settings.luaCheckBatchSize, 1))
+        .mapIndexed { index, files -> LuaCheckBatch(index, files) }
+
+    val parallelism = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), batches.size))
+    val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("LuaCheck", parallelism)
+    val completion = ExecutorCompletionService<LuaCheckBatchResult?>(executor)
+    val processNotCreated = AtomicBoolean(false)
+
+    try {
+        batches.forEach { batch ->
+            completion.submit {
+                runLuaCheckBatch(batch, dir, settings, indicator, processNotCreated)
+            }
         }
-        indicator.text = second.name
-        indicator.fraction = idx.toDouble() / fileList.size
-        idx++
-        try {
-            runLuaCheckInner(first, second, dir, builder)
-        } catch (e: ProcessNotCreatedException) {
-            showSettingsPanel(project)
-            break
+
+        indicator.isIndeterminate = false
+
+        // Results are added to the tree as each batch completes, rather than once all files have been checked.
+        for (completed in batches.indices) {
+            val future = completion.take()
+            val result = try {
+                future.get()
+            } catch (e: ExecutionException) {
+                if (e.cause is ProcessNotCreatedException) {
+                    null
+                } else {
+                    throw e
+                }
+            }
+
+            indicator.fraction = (completed + 1).toDouble() / batches.size
+            indicator.text = "${completed + 1}/${batches.size} batches checked"
+
+            if (result != null) {
+                ApplicationManager.getApplication().invokeLater {
+                    result.batch.files.forEach { (_, file) ->
+                        val fileNode = builder.addFile(file)
+                        result.records[file]?.forEach {
+                            builder.addLCItem(it, fileNode)
+                        }
+                    }
+                    builder.addBatchTiming(result.batch.index, batches.size, result.batch.files.size, result.timeMillis)
+                    builder.performUpdate()
+                }
+            }
         }
+    } finally {
+        executor.shutdown()
     }
 
-    ApplicationManager.getApplication().invokeLater { builder.performUpdate() }
+    if (processNotCreated.get()) {
+        showSettingsPanel(project)
+    }
 }
 
-private fun runLuaCheckInner(relativeFilePath: String,
-                             file: PsiFile,
+private fun runLuaCheckBatch(batch: LuaCheckBatch,
                              dir: VirtualFile,
-                             builder: LuaCheckTreeBuilder) {
-    val settings = LuaCheckSettings.getInstance()
+                             settings: LuaCheckSettings,
+                             indicator: ProgressIndicator,
+                             processNotCreated: AtomicBoolean): LuaCheckBatchResult? {
+    if (indicator.isCanceled || processNotCreated.get()) {
+        return null
+    }
+
+    val start = System.currentTimeMillis()
     val cmd = GeneralCommandLine(settings.luaCheck)
-    val args = settings.luaCheckArgs
-    cmd.addParameters(applyDefaultArgs(args))
-    cmd.addParameter(relativeFilePath)
+    cmd.addParameters(applyDefaultArgs(settings.luaCheckArgs))
+
+    if (settings.luaCheckCache) {
+        cmd.addParameter("--cache")
+    }
+
+    batch.files.forEach { (relativeFilePath, _) ->
+        cmd.addParameter(relativeFilePath)
+    }
+
     cmd.workDirectory = File(dir.path)
 
-    val fileNode = builder.addFile(file)
-
-    val handler = OSProcessHandler(cmd)
-    @Language("RegExp")
-    val reg = "(.+?):(\\d+):(\\d+)-(\\d+):(.+)\\n".toRegex()
-    handler.addProcessListener(object : ProcessListener {
-        override fun onTextAvailable(event: ProcessEvent, key: Key<*>) {
-            //print(event.text)
-            val matchResult = reg.find(event.text)
-            if (matchResult != null) {
-                //val matchGroup = matchResult.groups[1]!!
-                val lineGroup = matchResult.groups[2]!!
-                val colSGroup = matchResult.groups[3]!!
-                val colEGroup = matchResult.groups[4]!!
-                val descGroup = matchResult.groups[5]!!
-
-                builder.addLCItem(LCRecordData(
-                        lineGroup.value.toInt() - 1,
-                        colSGroup.value.toInt() - 1,
-                        colEGroup.value.toInt() - colSGroup.value.toInt() + 1,
-                        descGroup.value), fileNode)
-            }
-        }
+    val filesByPath = batch.files.associate { (relativeFilePath, file) -> normalizePath(relativeFilePath) to file }
+    val records = mutableMapOf<PsiFile, MutableList<LCRecordData>>()
+    val pendingText = StringBuilder()
 
-        override fun processTerminated(event: ProcessEvent) {
+    val handler = try {
+        OSProcessHandler(cmd)
+    } catch (e: ProcessNotCreatedException) {
+        processNotCreated.set(true)
+        throw e
+    }
 
-        }
+    fun processLine(text: String) {
+        val matchResult = RECORD_REGEX.find(text) ?: return
+        val file = filesByPath[normalizePath(matchResult.groupValues[1])] ?: return
+        val line = matchResult.groupValues[2].toInt()
+        val colStart = matchResult.groupValues[3].toInt()
+        val colEnd = matchResult.groupValues[4].toInt()
+
+        records.getOrPut(file) { mutableListOf() }.add(LCRecordData(
+                line - 1,
+                colStart - 1,
+                colEnd - colStart + 1,
+                matchResult.groupValues[5]))
+    }
 
-        override fun processWillTerminate(event: ProcessEvent, p1: Boolean) {
+    handler.addProcessListener(object : ProcessAdapter() {
+        override fun onTextAvailable(event: ProcessEvent, outputType: Key<*>) {
+            // Records are written to stdout, stderr (warnings etc.) mustn't be interleaved with them.
+            if (outputType != ProcessOutputTypes.STDOUT) {
+                return
+            }
 
-        }
+            // Output may arrive in arbitrary chunks, only complete lines are parsed.
+            pendingText.append(event.text)
 
-        override fun startNotified(event: ProcessEvent) {
+            var lineEnd = pendingText.indexOf("\n")
 
+            while (lineEnd >= 0) {
+                val text = pendingText.substring(0, lineEnd)
+                pendingText.delete(0, lineEnd + 1)
+                lineEnd = pendingText.indexOf("\n")
+                processLine(text)
+            }
+        }
+
+        override fun processTerminated(event: ProcessEvent) {
+            // The last line needn't be terminated by a newline.
+            if (pendingText.isNotEmpty()) {
+                processLine(pendingText.toString())
+                pendingText.setLength(0)
+            }
         }
     })
+
     handler.startNotify()
-    handler.waitFor()
-}
\ No newline at end of file
+
+    while (!handler.waitFor(100)) {
+        if (indicator.isCanceled) {
+            handler.destroyProcess()
+            handler.waitFor()
+            return null
+        }
+    }
+
+    return LuaCheckBatchResult(batch, records, System.currentTimeMillis() - start)
+}
@@ -27,6 +27,7 @@ import com.intellij.psi.PsiFile
 
 class LCRootNode(project: Project) : AbstractTreeNode<Any>(project, project) {
     private val myChildren: ArrayList<AbstractTreeNode<*>> = arrayListOf()
+    private var myTimingsNode: LCTimingsNode? = null
     override fun getChildren() = myChildren
 
     override fun update(data: PresentationData) {
@@ -35,11 +36,49 @@ class LCRootNode(project: Project) : AbstractTreeNode<Any>(project, project) {
 
     fun clear() {
         myChildren.clear()
+        myTimingsNode = null
     }
 
     fun append(child: AbstractTreeNode<*>) {
         myChildren.add(child)
     }
+
+    fun appendTiming(timing: LCBatchTiming) {
+        val timingsNode = myTimingsNode ?: LCTimingsNode(myProject).also {
+            myTimingsNode = it
+            myChildren.add(0, it)
+        }
+        timingsNode.append(LCBatchTimingNode(myProject, timing))
+    }
+}
+
+class LCTimingsNode(project: Project) : AbstractTreeNode<String>(project, "Timing") {
+    private val myChildren: ArrayList<AbstractTreeNode<*>> = arrayListOf()
+
+    override fun getChildren() = myChildren
+
+    override fun update(presentationData: PresentationData) {
+        val totalMillis = myChildren.sumOf { (it as LCBatchTimingNode).timing.timeMillis }
+        presentationData.presentableText = "Timing (${myChildren.size} batches, ${totalMillis}ms total)"
+        presentationData.setIcon(AllIcons.General.Information)
+    }
+
+    fun append(child: AbstractTreeNode<*>) {
+        myChildren.add(child)
+    }
+}
+
+data class LCBatchTiming(val index: Int, val batchCount: Int, val fileCount: Int, val timeMillis: Long)
+class LCBatchTimingNode(project: Project, val timing: LCBatchTiming) : AbstractTreeNode<LCBatchTiming>(project, timing) {
+    override fun update(presentationData: PresentationData) {
+        presentationData.presentableText = "Batch ${timing.index + 1}/${timing.batchCount}: ${timing.fileCount} files in ${timing.timeMillis}ms"
+    }
+
+    override fun getChildren(): Collection<AbstractTreeNode<Any>> {
+        return emptyList()
+    }
+
+    override fun isAlwaysLeaf() = true
 }
 
 class LCPsiFileNode(project: Project, file: PsiFile) : PsiFileNode(project, file, ViewSettings.DEFAULT) {
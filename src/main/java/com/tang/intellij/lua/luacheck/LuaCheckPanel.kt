@@ -212,6 +212,11 @@ class LuaCheckTreeBuilder(tree: JTree, model: DefaultTreeModel, val project: Pro
         fileNode.append(LCRecord(project, fileNode.value, item))
     }
 
+    fun addBatchTiming(index: Int, batchCount: Int, fileCount: Int, timeMillis: Long) {
+        val root = rootElement as LCRootNode
+        root.appendTiming(LCBatchTiming(index, batchCount, fileCount, timeMillis))
+    }
+
     fun performUpdate() {
         queueUpdateFrom(rootNode, true)
     }
@@ -243,6 +248,6 @@ class LuaCheckTreeStructure(project: Project) : AbstractTreeStructureBase(projec
     override fun hasSomethingToCommit(): Boolean = false
 
     override fun isAlwaysLeaf(element: Any): Boolean {
-        return element is LCRecord
+        return element is LCRecord || element is LCBatchTimingNode
     }
 }
\ No newline at end of file
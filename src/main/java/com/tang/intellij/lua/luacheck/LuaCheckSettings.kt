@@ -27,6 +27,8 @@ import com.intellij.util.xmlb.XmlSerializerUtil
 class LuaCheckSettings : PersistentStateComponent<LuaCheckSettings> {
     var luaCheck:String? = null
     var luaCheckArgs:String? = null
+    var luaCheckBatchSize:Int = 50 // Number of files passed to each luacheck process
+    var luaCheckCache:Boolean = false // Pass --cache to luacheck
 
     override fun getState(): LuaCheckSettings = this
 
@@ -43,11 +43,15 @@ public class LuaCheckSettingsPanel implements SearchableConfigurable, Configurab
     private TextFieldWithBrowseButton myLuaCheck;
     private HoverHyperlinkLabel luaCheckReleasePageLink;
     private HoverHyperlinkLabel commandLineOptionsLink;
+    private JSpinner myBatchSize;
+    private JCheckBox myUseCache;
     private LuaCheckSettings settings = LuaCheckSettings.getInstance();
 
     public LuaCheckSettingsPanel() {
         myLuaCheck.setText(settings.getLuaCheck());
         myCmdLine.setText(settings.getLuaCheckArgs());
+        myBatchSize.setModel(new SpinnerNumberModel(settings.getLuaCheckBatchSize(), 1, 1000, 1));
+        myUseCache.setSelected(settings.getLuaCheckCache());
     }
 
     @NotNull
@@ -71,13 +75,17 @@ public class LuaCheckSettingsPanel implements SearchableConfigurable, Configurab
     @Override
     public boolean isModified() {
         return !StringUtil.equals(settings.getLuaCheck(), myLuaCheck.getText()) ||
-                !StringUtil.equals(settings.getLuaCheckArgs(), myCmdLine.getText());
+                !StringUtil.equals(settings.getLuaCheckArgs(), myCmdLine.getText()) ||
+                settings.getLuaCheckBatchSize() != (int) myBatchSize.getValue() ||
+                settings.getLuaCheckCache() != myUseCache.isSelected();
     }
 
     @Override
     public void apply() {
         settings.setLuaCheck(myLuaCheck.getText());
         settings.setLuaCheckArgs(myCmdLine.getText());
+        settings.setLuaCheckBatchSize((int) myBatchSize.getValue());
+        settings.setLuaCheckCache(myUseCache.isSelected());
     }
 
     private void createUIComponents() {
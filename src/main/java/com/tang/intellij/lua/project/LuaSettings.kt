@@ -20,6 +20,7 @@ import com.intellij.openapi.components.PersistentStateComponent
 import com.intellij.openapi.components.ServiceManager
 import com.intellij.openapi.components.State
 import com.intellij.openapi.components.Storage
+import com.intellij.openapi.util.SimpleModificationTracker
 import com.intellij.util.xmlb.XmlSerializerUtil
 import com.tang.intellij.lua.Constants
 import com.tang.intellij.lua.lang.LuaLanguageLevel
@@ -31,6 +32,11 @@ import java.nio.charset.Charset
  */
 @State(name = "LuaSettings", storages = [(Storage("emmy.xml"))])
 class LuaSettings : PersistentStateComponent<LuaSettings> {
+    /**
+     * Incremented whenever a setting that type inference (or type checking) depends upon changes.
+     */
+    val modificationTracker = SimpleModificationTracker()
+
     //自定义require函数
     var requireLikeFunctionNames: Array<String> = arrayOf("require")
 
@@ -46,10 +52,22 @@ class LuaSettings : PersistentStateComponent<LuaSettings> {
     var isShowWordsInFile: Boolean = true
 
     var isNilStrict: Boolean = false
+        set(value) {
+            field = value
+            modificationTracker.incModificationCount()
+        }
 
     var isUnknownIndexable: Boolean = true
+        set(value) {
+            field = value
+            modificationTracker.incModificationCount()
+        }
 
     var isUnknownCallable: Boolean = true
+        set(value) {
+            field = value
+            modificationTracker.incModificationCount()
+        }
 
     var additionalSourcesRoot = arrayOf<String>()
 
@@ -75,6 +93,7 @@ class LuaSettings : PersistentStateComponent<LuaSettings> {
 
     override fun loadState(luaSettings: LuaSettings) {
         XmlSerializerUtil.copyBean(luaSettings, this)
+        modificationTracker.incModificationCount()
     }
 
     val attachDebugDefaultCharset: Charset get() {
@@ -22,13 +22,14 @@ import com.intellij.psi.PsiFile
 import com.intellij.psi.PsiNamedElement
 import com.intellij.util.BitUtil
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 interface LuaDeclarationTree {
     companion object {
         private val key = Key.create<LuaDeclarationTree>("lua.object.tree.declarations")
         fun get(file: PsiFile): LuaDeclarationTree {
             var ret = file.getUserData(key)
-            if (ret != null && ret.shouldRebuild()) {
+            if (ret != null && ret.shouldRebuild() && !ret.update()) {
                 file.putUserData(key, null)
                 ret = null
             }
@@ -51,6 +52,13 @@ interface LuaDeclarationTree {
             }
             return ret
         }
+
+        /**
+         * Notifies the file's tree, if any, that [element] (or its children) changed, so that only the enclosing scope needs to be rebuilt.
+         */
+        fun onChanged(file: PsiFile, element: PsiElement) {
+            file.getUserData(key)?.onChanged(element)
+        }
     }
 
     interface IDeclaration {
@@ -63,6 +71,13 @@ interface LuaDeclarationTree {
     }
 
     fun shouldRebuild(): Boolean
+
+    /**
+     * Brings the tree up to date by rebuilding the scopes that have changed, returns false if the tree must instead be rebuilt entirely.
+     */
+    fun update(): Boolean
+
+    fun onChanged(element: PsiElement)
     fun find(expression: LuaExpression<*>): IDeclaration?
     fun walkUp(pin: PsiElement, process: (declaration: IDeclaration) -> Boolean)
     fun walkUpLocal(pin: PsiElement, process: (declaration: IDeclaration) -> Boolean) {
@@ -76,14 +91,18 @@ interface LuaDeclarationTree {
 }
 
 private abstract class DeclarationTreeNode {
+    @Volatile
     var next: DeclarationTreeNode? = null
+    @Volatile
     var prev: DeclarationTreeNode? = null
     abstract val pos: Int
 }
 
 private abstract class DeclarationTreeNodeContainer : DeclarationTreeNode() {
     protected val children = mutableListOf<DeclarationTreeNode>()
+    @Volatile
     private var _first: DeclarationTreeNode? = null
+    @Volatile
     private var _last: DeclarationTreeNode? = null
 
     fun add(child: DeclarationTreeNode) {
@@ -117,26 +136,57 @@ private abstract class DeclarationTreeNodeContainer : DeclarationTreeNode() {
         return null
     }
 
+    /**
+     * Replaces [child] with the fully built [replacement], such that concurrent walks see either one or the other.
+     */
+    fun replace(child: DeclarationTreeNode, replacement: DeclarationTreeNode) {
+        val index = children.indexOfFirst { it === child }
+        children[index] = replacement
+        replacement.prev = child.prev
+        replacement.next = child.next
+        if (_first === child)
+            _first = replacement
+        else
+            child.prev?.next = replacement
+        if (_last === child)
+            _last = replacement
+        else
+            child.next?.prev = replacement
+    }
+
     val first get() = _first
 
     val last get() = _last
 }
 
 private class Declaration(
+        val tree: LuaDeclarationTreeBase,
         override val name: String,
-        override val pos: Int,
         override val psi: PsiNamedElement,
         val flags: Int,
-        val prevDeclaration: Declaration? = null
+        val prevDeclaration: Declaration? = null,
+        private val fixedPos: Int? = null
 ) : DeclarationTreeNode(), LuaDeclarationTree.IDeclaration {
-    private val children = mutableMapOf<String, Declaration>()
+    // Fields may be assigned in several scopes, the last assignment (by position) is the field's declaration.
+    // Lists are replaced rather than mutated, as fields are added and removed whilst the tree is being read.
+    private val children = ConcurrentHashMap<String, List<Declaration>>()
+
+    // Unless fixed by the tree, positions are computed on demand, as offsets of declarations following an edited scope shift.
+    override val pos get() = fixedPos ?: tree.getPosition(psi)
 
     fun findField(name: String): Declaration? {
-        return children[name]
+        val fields = children[name] ?: return null
+        return if (fields.size == 1) fields.first() else fields.maxByOrNull { it.pos }
     }
 
     fun addField(child: Declaration) {
-        children[child.name] = child
+        children.merge(child.name, listOf(child)) { fields, added -> fields + added }
+    }
+
+    fun removeField(child: Declaration) {
+        children.computeIfPresent(child.name) { _, fields ->
+            fields.filter { it !== child }.takeIf { it.isNotEmpty() }
+        }
     }
 
     override val firstDeclaration: Declaration get() = prevDeclaration?.firstDeclaration ?: this
@@ -159,10 +209,26 @@ private class DeclarationFlag {
 
 private open class Scope(
         val tree: LuaDeclarationTreeBase,
-        override val pos: Int,
-        val parent: Scope? = null
+        val psi: PsiElement,
+        val parent: Scope? = null,
+        private val fixedPos: Int? = null
 ) : DeclarationTreeNodeContainer() {
 
+    override val pos get() = fixedPos ?: tree.getPosition(psi)
+
+    /**
+     * Fields this scope added to declarations of enclosing scopes, which must be removed if the scope is rebuilt.
+     */
+    val addedFields = mutableListOf<Pair<Declaration, Declaration>>()
+
+    fun processScopes(process: (scope: Scope) -> Unit) {
+        process(this)
+        processNode(Scope::class.java) {
+            it.processScopes(process)
+            true
+        }
+    }
+
     open fun walkOver(process: (declaration: Declaration) -> Boolean): Boolean {
         return true
     }
@@ -207,20 +273,112 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
         val scopeKey = Key.create<Scope>("lua.object.tree.declarations.scope")
     }
 
-    val modificationStamp: Long = file.modificationStamp
+    var modificationStamp: Long = file.modificationStamp
 
     private val scopes = Stack<Scope>()
     private var topScope: Scope? = null
     private var curScope: Scope? = null
 
+    private val dirtyScopes = mutableSetOf<Scope>()
+    private var requiresRebuild = false
+
+    // Whilst a scope is being rebuilt, its PSI (and that of nested scopes) must continue to map to the scopes being replaced.
+    private var pendingScopes: MutableList<Pair<PsiElement, Scope>>? = null
+
     override fun shouldRebuild(): Boolean {
         return modificationStamp != file.modificationStamp
     }
 
+    override fun onChanged(element: PsiElement) {
+        synchronized(scopes) {
+            if (requiresRebuild) {
+                return
+            }
+
+            var scope: Scope? = null
+            var cur: PsiElement? = element
+
+            while (cur != null && cur !is PsiFile) {
+                if (cur is LuaDeclarationScope) {
+                    scope = cur.getUserData(scopeKey)?.takeIf { it.tree === this }
+                    break
+                }
+                cur = cur.parent
+            }
+
+            // Declarations of local statements are visible to subsequent statements of the parent scope.
+            while (scope != null && scope.psi is LuaLocalDefStat) {
+                scope = scope.parent
+            }
+
+            if (scope == null || scope === topScope) {
+                requiresRebuild = true
+                dirtyScopes.clear()
+            } else {
+                dirtyScopes.add(scope)
+            }
+        }
+    }
+
+    override fun update(): Boolean {
+        synchronized(scopes) {
+            if (!shouldRebuild()) {
+                return true
+            }
+
+            if (requiresRebuild || dirtyScopes.isEmpty() || !file.isPhysical) {
+                return false
+            }
+
+            val rebuildScopes = dirtyScopes.filter { scope ->
+                generateSequence(scope.parent) { it.parent }.none { it in dirtyScopes }
+            }
+
+            if (rebuildScopes.any { !it.psi.isValid }) {
+                return false
+            }
+
+            rebuildScopes.forEach { rebuildScope(it) }
+            dirtyScopes.clear()
+            modificationStamp = file.modificationStamp
+            return true
+        }
+    }
+
+    /**
+     * The tree is read without locking, so rather than clearing [scope], a replacement is built off to the side and then swapped in.
+     */
+    private fun rebuildScope(scope: Scope) {
+        val parent = scope.parent ?: return
+        val pending = mutableListOf<Pair<PsiElement, Scope>>()
+        pendingScopes = pending
+
+        try {
+            scopes.clear()
+            curScope = parent
+            val replacement = push(createScope(scope.psi as LuaDeclarationScope), scope.psi)
+            visitElementExt(scope.psi)
+
+            parent.replace(scope, replacement)
+            pending.forEach { (psi, pendingScope) -> psi.putUserData(scopeKey, pendingScope) }
+        } finally {
+            pendingScopes = null
+            scopes.clear()
+            curScope = topScope
+        }
+
+        scope.processScopes {
+            it.addedFields.forEach { (owner, field) -> owner.removeField(field) }
+        }
+    }
+
     private fun push(psi: LuaDeclarationScope): Scope {
-        val pos = getPosition(psi)
+        return push(createScope(psi), psi)
+    }
+
+    private fun createScope(psi: LuaDeclarationScope): Scope {
         if (psi is LuaLocalDefStat) { // local a = a
-            return push(object : Scope(this, pos, curScope) {
+            return object : Scope(this, psi, curScope, fixedPosition(psi)) {
                 override fun walkOver(process: (declaration: Declaration) -> Boolean): Boolean {
                     return processNode(Declaration::class.java, process)
                 }
@@ -228,37 +386,45 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
                 override fun walkUp(pos: Int, lev: Int, process: (declaration: Declaration) -> Boolean) {
                     parent?.walkUp(this.pos, lev, process)
                 }
-            }, psi)
+            }
         }
         if (psi is LuaRepeatStat) { // repeat local a = false until a
-            return push(object : Scope(this, pos, curScope) {
+            return object : Scope(this, psi, curScope, fixedPosition(psi)) {
                 override fun walkUp(pos: Int, lev: Int, process: (declaration: Declaration) -> Boolean) {
                     val blockScope = children.firstOrNull() as? Scope
                     if (lev == 0 && blockScope != null)
                         blockScope.walkUp(pos, lev, process)
                     else super.walkUp(pos, lev, process)
                 }
-            }, psi)
+            }
         }
         if (psi is LuaForBStat) { // for _, a in ipairs(a) do end
-            return push(object : Scope(this, pos, curScope){
+            return object : Scope(this, psi, curScope, fixedPosition(psi)){
                 override fun walkUp(pos: Int, lev: Int, process: (declaration: Declaration) -> Boolean) {
                     if (lev == 0) {
                         this.parent?.walkUp(pos, lev, process)
                     } else super.walkUp(pos, lev, process)
                 }
-            }, psi)
+            }
         }
-        return push(Scope(this, pos, curScope), psi)
+        return Scope(this, psi, curScope, fixedPosition(psi))
     }
 
     private fun push(scope: Scope, psi: PsiElement): Scope {
         synchronized(scope) {
+            val pending = pendingScopes
             scopes.push(scope)
             if (topScope == null)
                 topScope = scope
-            psi.putUserData(scopeKey, scope)
-            curScope?.add(scope)
+            if (pending != null) {
+                pending.add(Pair(psi, scope))
+                // The rebuilt scope itself is swapped into its parent once built.
+                if (scopes.size > 1)
+                    curScope?.add(scope)
+            } else {
+                psi.putUserData(scopeKey, scope)
+                curScope?.add(scope)
+            }
             curScope = scope
         }
         return scope
@@ -278,6 +444,9 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
             scopes.clear()
             topScope = null
             curScope = null
+            dirtyScopes.clear()
+            requiresRebuild = false
+            modificationStamp = file.modificationStamp
             file.accept(this)
             //println("build tree : ${file.name}, ${System.currentTimeMillis() - t}")
         }
@@ -287,15 +456,30 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
 
     abstract fun getPosition(psi: PsiElement): Int
 
+    /**
+     * The position of a node, if it must be determined when the node is created rather than when it's queried.
+     */
+    open fun fixedPosition(psi: PsiElement): Int? = null
+
     override fun walkUp(pin: PsiElement, process: (declaration: LuaDeclarationTree.IDeclaration) -> Boolean) {
         assert(pin.containingFile == file)
         val scope = findScope(pin)
         scope?.walkUp(getPosition(pin), 0, process)
     }
 
+    // Declarations are resolved against the scope being built, which may not (yet) be the scope mapped to the PSI.
+    private fun findInCurrentScope(expression: LuaExpression<*>): Declaration? {
+        return curScope?.find(expression)?.firstDeclaration
+    }
+
     private fun createDeclaration(name: String, psi: PsiNamedElement, flags: Int): Declaration {
-        val first = if (psi is LuaExpression<*>) find(psi) else null
-        return Declaration(name, getPosition(psi), psi, flags, first)
+        val first = if (psi is LuaExpression<*>) findInCurrentScope(psi) else null
+        return Declaration(this, name, psi, flags, first, fixedPosition(psi))
+    }
+
+    private fun addField(owner: Declaration, field: Declaration) {
+        owner.addField(field)
+        curScope?.addedFields?.add(Pair(owner, field))
     }
 
     override fun find(expression: LuaExpression<*>): Declaration? {
@@ -325,7 +509,9 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
         val name = o.name
         if (name != null) {
             val parentExpr = o.classMethodName.expression
-            find(parentExpr)?.addField(createDeclaration(name, o, DeclarationFlag.Function or DeclarationFlag.ClassMember))
+            findInCurrentScope(parentExpr)?.let {
+                addField(it, createDeclaration(name, o, DeclarationFlag.Function or DeclarationFlag.ClassMember))
+            }
         }
         super.visitClassMethodDefStat(o)
     }
@@ -336,14 +522,16 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
     override fun visitAssignStat(o: LuaAssignStat) {
         o.varExprList.expressionList.forEach { expr ->
             if (expr is LuaNameExpr) {
-                val flags = find(expr)?.flags ?: DeclarationFlag.Global
+                val flags = findInCurrentScope(expr)?.flags ?: DeclarationFlag.Global
                 curScope?.add(createDeclaration(expr.name, expr, flags))
             } else if (expr is LuaIndexExpr) {
                 val fieldName = expr.name ?: (expr.idExpr as? LuaLiteralExpr)?.let { "[${it.text}]" }
 
                 if (fieldName != null) {
                     val declaration = curScope?.find(expr.prefixExpression)
-                    declaration?.addField(createDeclaration(fieldName, expr, DeclarationFlag.ClassMember))
+                    declaration?.let {
+                        addField(it, createDeclaration(fieldName, expr, DeclarationFlag.ClassMember))
+                    }
                 }
             }
         }
@@ -394,6 +582,13 @@ private class LuaDeclarationTreeStub(file: PsiFile) : LuaDeclarationTreeBase(fil
         return super.shouldRebuild() || (file as? LuaPsiFile)?.isContentsLoaded == true
     }
 
+    override fun update(): Boolean {
+        return false
+    }
+
+    override fun onChanged(element: PsiElement) {
+    }
+
     override fun visitElementExt(element: PsiElement) {
         var stub: STUB_ELE? = null
         if (element is LuaPsiFile) {
@@ -429,4 +624,9 @@ private class LuaDeclarationTreeStub(file: PsiFile) : LuaDeclarationTreeBase(fil
     override fun getPosition(psi: PsiElement): Int {
         return map.getOrPut(psi) { count++ }
     }
+
+    // Positions are allocated in the order elements are first seen, so nodes must be numbered as the stubs are traversed.
+    override fun fixedPosition(psi: PsiElement): Int {
+        return getPosition(psi)
+    }
 }
@@ -73,7 +73,7 @@ open class LuaPsiFile(fileViewProvider: FileViewProvider) : PsiFileBase(fileView
      */
     val languageLevel get() = LuaSettings.instance.languageLevel
 
-    private fun findCachedModuleName(): String? {
+    internal fun findCachedModuleName(): String? {
         return CachedValuesManager.getCachedValue(this, KEY_CACHED_MODULE_NAME) {
             CachedValueProvider.Result.create(findModuleName(), this)
         }
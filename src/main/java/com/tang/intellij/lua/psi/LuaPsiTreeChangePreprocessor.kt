@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.psi
+
+import com.intellij.psi.PsiElement
+import com.intellij.psi.impl.PsiTreeChangeEventImpl
+import com.intellij.psi.impl.PsiTreeChangePreprocessor
+import com.tang.intellij.lua.search.LuaGlobalSymbolTable
+
+/**
+ * Informs the per-file declaration and scoped type trees of the elements that changed, so they can be updated incrementally. Likewise, the
+ * global symbol table is informed of the files that changed.
+ */
+class LuaPsiTreeChangePreprocessor : PsiTreeChangePreprocessor {
+    override fun treeChanged(event: PsiTreeChangeEventImpl) {
+        val eventFile = event.file
+
+        // Files themselves being added, removed etc.
+        if (eventFile == null) {
+            (event.child as? LuaPsiFile)?.let { LuaGlobalSymbolTable.onChanged(it) }
+            (event.oldChild as? LuaPsiFile)?.let { LuaGlobalSymbolTable.onChanged(it) }
+            (event.newChild as? LuaPsiFile)?.let { LuaGlobalSymbolTable.onChanged(it) }
+            return
+        }
+
+        val file = eventFile as? LuaPsiFile ?: return
+        LuaGlobalSymbolTable.onChanged(file)
+
+        // Generic changes only tell us that something within the file changed.
+        if (event.isGenericChange) {
+            return
+        }
+
+        when (event.code) {
+            PsiTreeChangeEventImpl.PsiEventType.CHILD_ADDED,
+            PsiTreeChangeEventImpl.PsiEventType.CHILD_REMOVED,
+            PsiTreeChangeEventImpl.PsiEventType.CHILD_REPLACED,
+            PsiTreeChangeEventImpl.PsiEventType.CHILDREN_CHANGED -> onChanged(file, event.parent)
+            PsiTreeChangeEventImpl.PsiEventType.CHILD_MOVED -> {
+                onChanged(file, event.oldParent)
+                onChanged(file, event.newParent)
+            }
+            else -> {}
+        }
+    }
+
+    private fun onChanged(file: LuaPsiFile, element: PsiElement?) {
+        val changed = element ?: file
+        LuaDeclarationTree.onChanged(file, changed)
+        LuaScopedTypeTree.onChanged(file, changed)
+    }
+}
@@ -25,7 +25,6 @@ import com.tang.intellij.lua.comment.psi.api.LuaComment
 import com.tang.intellij.lua.search.SearchContext
 import com.tang.intellij.lua.stubs.index.LuaClassIndex
 import com.tang.intellij.lua.ty.*
-import java.util.*
 
 open class FoundLuaScope(open val scope: LuaScopedTypeTreeScope, val psiScopedTypeIndex: Int? = null)
 
@@ -56,7 +55,7 @@ interface LuaScopedTypeTree {
         fun get(luaFile: LuaPsiFile): LuaScopedTypeTree {
             val currentTree = luaFile.getUserData(treeKey)
 
-            if (currentTree?.shouldRebuild() != false) {
+            if (currentTree?.shouldRebuild() != false && currentTree?.update() != true) {
                 if (!luaFile.isContentsLoaded) {
                     try {
                         return ScopedTypeStubTree(luaFile).apply {
@@ -74,7 +73,14 @@ interface LuaScopedTypeTree {
                 }
             }
 
-            return currentTree
+            return currentTree!!
+        }
+
+        /**
+         * Notifies the file's tree, if any, that [element] (or its children) changed, so that only the enclosing scope needs to be rebuilt.
+         */
+        fun onChanged(file: LuaPsiFile, element: PsiElement) {
+            file.getUserData(treeKey)?.onChanged(element)
         }
 
         fun get(file: PsiFile): LuaScopedTypeTree? {
@@ -95,7 +101,16 @@ private class ScopedTypeTreeScope(override val psi: LuaTypeScope, override val t
     override val name = LuaScopedTypeTreeScope.scopeNameFromPsi(psi)
 
     private val types = ArrayList<LuaScopedType>(0)
-    private val childScopes = LinkedList<ScopedTypeTreeScope>()
+    private val childScopes = LinkedHashSet<ScopedTypeTreeScope>(0)
+
+    /**
+     * Scopes of overloads declared on this scope's PSI, which are children of the parent scope, rather than this scope.
+     */
+    val overloadScopes = ArrayList<ScopedTypeTreeScope>(0)
+
+    // Most scopes declare no types, so the indices are only allocated once a type is added.
+    private var typeIndices: MutableMap<LuaScopedType, Int>? = null
+    private var nameIndices: MutableMap<String, MutableList<Int>>? = null
 
     private var dumbCachedOwner: ITy? = null
     private var isDumbOwnerCached = false
@@ -107,12 +122,32 @@ private class ScopedTypeTreeScope(override val psi: LuaTypeScope, override val t
         childScopes.add(scope)
     }
 
+    fun removeChildScope(scope: ScopedTypeTreeScope) {
+        childScopes.remove(scope)
+    }
+
+    fun processScopes(process: (ScopedTypeTreeScope) -> Unit) {
+        process(this)
+        childScopes.forEach { it.processScopes(process) }
+    }
+
+    fun resetOwner() {
+        dumbCachedOwner = null
+        isDumbOwnerCached = false
+        cachedOwner = null
+        isOwnerCached = false
+    }
+
     fun add(type: LuaScopedType) {
+        val index = types.size
         types.add(type)
+
+        (typeIndices ?: HashMap<LuaScopedType, Int>().also { typeIndices = it }).putIfAbsent(type, index)
+        (nameIndices ?: HashMap<String, MutableList<Int>>().also { nameIndices = it }).getOrPut(type.name) { ArrayList(1) }.add(index)
     }
 
     fun addAll(type: Collection<LuaScopedType>) {
-        types.addAll(type)
+        type.forEach { add(it) }
     }
 
     inline fun forEach(action: (LuaScopedType) -> Unit) {
@@ -124,30 +159,19 @@ private class ScopedTypeTreeScope(override val psi: LuaTypeScope, override val t
     }
 
     fun indexOf(type: LuaScopedType): Int? {
-        val index = types.indexOf(type)
-        return if (index >= 0) index else null
+        return typeIndices?.get(type)
     }
 
     fun get(name: String, beforeIndex: Int): LuaScopedType? {
-        for (i in beforeIndex - 1 downTo 0) {
-            val type = types[i]
-
-            if (type.name == name) {
-                return type
-            }
-        }
+        val indices = nameIndices?.get(name) ?: return null
 
-        return null
+        // Indices are ascending, find the last declared before beforeIndex.
+        val insertionPoint = indices.binarySearch(beforeIndex).let { if (it < 0) -(it + 1) else it }
+        return if (insertionPoint > 0) types[indices[insertionPoint - 1]] else null
     }
 
     fun get(name: String): LuaScopedType? {
-        types.forEach {
-            if (it.name == name) {
-                return it
-            }
-        }
-
-        return null
+        return nameIndices?.get(name)?.let { types[it.first()] }
     }
 
     override fun findName(context: SearchContext, name: String, beforeIndex: Int?): LuaScopedType? {
@@ -244,17 +268,113 @@ private abstract class ScopedTypeTree(val file: LuaPsiFile) : LuaRecursiveVisito
         val scopeKey = Key.create<ScopedTypeTreeScope>("lua.object.tree.types.scope")
     }
 
-    private val modificationStamp: Long = file.modificationStamp
+    private var modificationStamp: Long = file.modificationStamp
 
     private val rootScope = ScopedTypeTreeScope(file, this, null)
     private var currentScope = rootScope
+    private var overloadedScope: ScopedTypeTreeScope? = null
+
+    private val dirtyScopes = mutableSetOf<ScopedTypeTreeScope>()
+    private var requiresRebuild = false
+
+    // Whilst a scope is being rebuilt, its PSI (and that of nested scopes) must continue to map to the scopes being replaced.
+    private var pendingScopes: MutableList<ScopedTypeTreeScope>? = null
 
     open fun shouldRebuild(): Boolean {
         return modificationStamp != file.modificationStamp
     }
 
-    private fun create(psi: LuaTypeScope): ScopedTypeTreeScope {
-        val genericDefs = if (psi is LuaDocFunctionTy) {
+    open fun onChanged(element: PsiElement) {
+        synchronized(this) {
+            if (requiresRebuild) {
+                return
+            }
+
+            var scope: ScopedTypeTreeScope? = null
+            var cur: PsiElement? = element
+
+            while (cur != null && cur !is PsiFile) {
+                if (cur is LuaTypeScope) {
+                    scope = cur.getUserData(scopeKey)?.takeIf { it.tree === this }
+                    break
+                }
+                cur = cur.parent
+            }
+
+            // Class scopes are built from their comment, rather than their own children.
+            while (scope != null && scope.psi is LuaDocTagClass) {
+                scope = scope.parent
+            }
+
+            if (scope == null || scope === rootScope) {
+                requiresRebuild = true
+                dirtyScopes.clear()
+            } else {
+                dirtyScopes.add(scope)
+            }
+        }
+    }
+
+    /**
+     * Brings the tree up to date by rebuilding the scopes that have changed, returns false if the tree must instead be rebuilt entirely.
+     */
+    open fun update(): Boolean {
+        synchronized(this) {
+            if (!shouldRebuild()) {
+                return true
+            }
+
+            if (requiresRebuild || dirtyScopes.isEmpty() || !file.isPhysical) {
+                return false
+            }
+
+            val rebuildScopes = dirtyScopes.filter { scope ->
+                generateSequence(scope.parent) { it.parent }.none { it in dirtyScopes }
+            }
+
+            if (rebuildScopes.any { !it.psi.isValid }) {
+                return false
+            }
+
+            // Owners are inferred, and may depend upon declarations in the edited scopes.
+            rootScope.processScopes { it.resetOwner() }
+            rebuildScopes.forEach { rebuildScope(it) }
+            dirtyScopes.clear()
+            modificationStamp = file.modificationStamp
+            return true
+        }
+    }
+
+    /**
+     * The tree is read without locking, so rather than clearing [scope], a replacement is built off to the side and then swapped in.
+     */
+    private fun rebuildScope(scope: ScopedTypeTreeScope) {
+        val parent = scope.parent ?: return
+        val pending = mutableListOf<ScopedTypeTreeScope>()
+        pendingScopes = pending
+
+        try {
+            currentScope = parent
+            val replacement = create(scope.psi)
+            pending.add(replacement)
+
+            currentScope = replacement
+            traverseChildren(scope.psi)
+
+            scope.overloadScopes.forEach {
+                it.parent?.removeChildScope(it)
+            }
+            parent.removeChildScope(scope)
+            parent.addChildScope(replacement)
+            pending.forEach { it.psi.putUserData(scopeKey, it) }
+        } finally {
+            pendingScopes = null
+            currentScope = rootScope
+        }
+    }
+
+    private fun genericDefs(psi: LuaTypeScope): Collection<LuaScopedType>? {
+        return if (psi is LuaDocFunctionTy) {
             psi.genericDefList
         } else if (psi is LuaDocTagAlias) {
             psi.genericDefList
@@ -267,10 +387,12 @@ private abstract class ScopedTypeTree(val file: LuaPsiFile) : LuaRecursiveVisito
 
             comment?.findGenericDefs()
         }
+    }
 
+    private fun create(psi: LuaTypeScope): ScopedTypeTreeScope {
         val scope = ScopedTypeTreeScope(psi, this, currentScope)
 
-        genericDefs?.let {
+        genericDefs(psi)?.let {
             scope.addAll(it)
         }
 
@@ -278,12 +400,25 @@ private abstract class ScopedTypeTree(val file: LuaPsiFile) : LuaRecursiveVisito
     }
 
     private fun push(scope: ScopedTypeTreeScope) {
+        overloadedScope?.let {
+            if (currentScope === (it.parent ?: rootScope)) {
+                it.overloadScopes.add(scope)
+            }
+        }
+
         currentScope.addChildScope(scope)
         currentScope = scope
     }
 
     private fun pop() {
-        currentScope.psi.putUserData(scopeKey, currentScope)
+        val pending = pendingScopes
+
+        if (pending != null) {
+            pending.add(currentScope)
+        } else {
+            currentScope.psi.putUserData(scopeKey, currentScope)
+        }
+
         currentScope = currentScope.parent ?: rootScope
     }
 
@@ -331,11 +466,14 @@ private abstract class ScopedTypeTree(val file: LuaPsiFile) : LuaRecursiveVisito
             // Typically generic defs (@generic) are scoped to the function owner. However, overloads are a special case
             // where generics defs must be scoped to the overload only i.e. cannot be referenced in the function body.
             val previousScope = currentScope
+            val previousOverloadedScope = overloadedScope
             currentScope = currentScope.parent ?: rootScope
+            overloadedScope = previousScope
 
             traverseChildren(element)
 
             currentScope = previousScope
+            overloadedScope = previousOverloadedScope
         } else {
             val cls = (element as? LuaComment)?.tagClass
 
@@ -390,6 +528,13 @@ private class ScopedTypeStubTree(file: LuaPsiFile) : ScopedTypeTree(file) {
         return super.shouldRebuild() || (file as? LuaPsiFile)?.isContentsLoaded == true
     }
 
+    override fun update(): Boolean {
+        return false
+    }
+
+    override fun onChanged(element: PsiElement) {
+    }
+
     override fun traverseChildren(element: PsiElement) {
         var stub: STUB_ELE? = null
 
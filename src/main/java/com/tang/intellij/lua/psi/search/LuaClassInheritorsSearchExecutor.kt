@@ -20,7 +20,7 @@ import com.intellij.openapi.project.DumbService
 import com.intellij.util.Processor
 import com.intellij.util.QueryExecutor
 import com.tang.intellij.lua.comment.psi.LuaDocTagClass
-import com.tang.intellij.lua.stubs.index.LuaSuperClassIndex
+import com.tang.intellij.lua.search.LuaClassHierarchyCache
 
 /**
  * LuaClassInheritorsSearchExecutor
@@ -37,11 +37,10 @@ class LuaClassInheritorsSearchExecutor : QueryExecutor<LuaDocTagClass, LuaClassI
         if (!processedNames.add(typeName))
             return ret
 
-        val processed = mutableListOf<LuaDocTagClass>()
-        LuaSuperClassIndex.process(typeName, searchParameters.project, searchParameters.searchScope) {
-            processed.add(it)
-            ret = processor.process(it)
-            ret
+        val processed = LuaClassHierarchyCache.getInstance(searchParameters.project).getDirectInheritors(typeName, searchParameters.searchScope)
+        for (def in processed) {
+            ret = processor.process(def)
+            if (!ret) break
         }
         if (ret && searchParameters.isDeep) {
             for (def in processed) {
@@ -45,11 +45,15 @@ class LuaIndexReference internal constructor(element: LuaIndexExpr, private val
     }
 
     override fun isReferenceTo(element: PsiElement): Boolean {
+        if (!isPossibleReferenceTarget(element, id.text)) {
+            return false
+        }
+
         return myElement.manager.areElementsEquivalent(resolve(), element)
     }
 
     override fun resolve(): PsiElement? {
-        return resolve(SearchContext.get(myElement.project))
+        return resolveWithCaching(this)
     }
 
     override fun resolve(context: SearchContext): PsiElement? {
@@ -20,6 +20,7 @@ import com.intellij.openapi.util.TextRange
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiReferenceBase
 import com.intellij.util.IncorrectOperationException
+import com.tang.intellij.lua.Constants
 import com.tang.intellij.lua.psi.LuaElementFactory
 import com.tang.intellij.lua.psi.LuaNameExpr
 import com.tang.intellij.lua.psi.resolve
@@ -45,7 +46,7 @@ class LuaNameReference internal constructor(element: LuaNameExpr) : PsiReference
     }
 
     override fun resolve(): PsiElement? {
-        return resolve(SearchContext.get(myElement.project))
+        return resolveWithCaching(this)
     }
 
     override fun resolve(context: SearchContext): PsiElement? {
@@ -54,6 +55,13 @@ class LuaNameReference internal constructor(element: LuaNameExpr) : PsiReference
     }
 
     override fun isReferenceTo(element: PsiElement): Boolean {
+        val name = myElement.name
+
+        // self resolves to the expression the method is defined upon, which is differently named.
+        if (name != Constants.WORD_SELF && !isPossibleReferenceTarget(element, name)) {
+            return false
+        }
+
         return myElement.manager.areElementsEquivalent(element, resolve())
     }
 
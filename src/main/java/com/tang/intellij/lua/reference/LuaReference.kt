@@ -17,7 +17,10 @@
 package com.tang.intellij.lua.reference
 
 import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiNamedElement
 import com.intellij.psi.PsiReference
+import com.intellij.psi.impl.source.resolve.ResolveCache
+import com.tang.intellij.lua.search.ProjectSearchContext
 import com.tang.intellij.lua.search.SearchContext
 
 /**
@@ -27,3 +30,33 @@ import com.tang.intellij.lua.search.SearchContext
 interface LuaReference : PsiReference {
     fun resolve(context: SearchContext): PsiElement?
 }
+
+// Cached results are shared by all callers, so they're resolved in a fresh project context rather than whichever context is current.
+private val CACHING_RESOLVER = ResolveCache.AbstractResolver<LuaReference, PsiElement> { ref, _ ->
+    ref.resolve(ProjectSearchContext(ref.element.project))
+}
+
+/**
+ * Resolves [ref] in the project context. Results are cached (by IntelliJ's ResolveCache) until the PSI is next modified.
+ */
+fun resolveWithCaching(ref: LuaReference): PsiElement? {
+    val project = ref.element.project
+    val context = SearchContext.get(project)
+
+    // Dumb resolution is incomplete and ResolveCache isn't invalidated when indexing completes. Likewise, resolution within a custom scope
+    // mustn't be served to (or from) callers searching the whole project.
+    if (context.isDumb || context.hasCustomScope) {
+        return ref.resolve(context)
+    }
+
+    return ResolveCache.getInstance(project).resolveWithCaching(ref, CACHING_RESOLVER, true, false)
+}
+
+/**
+ * Cheap check performed prior to resolving a reference named [name]. Named elements can only be the target of references with a matching
+ * name.
+ */
+fun isPossibleReferenceTarget(element: PsiElement, name: String): Boolean {
+    val elementName = (element as? PsiNamedElement)?.name
+    return elementName == null || elementName == name
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Key
+import com.intellij.openapi.util.RecursionManager
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.util.CachedValue
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+import com.intellij.psi.util.PsiModificationTracker
+import com.tang.intellij.lua.comment.psi.LuaDocTagClass
+import com.tang.intellij.lua.stubs.index.LuaSuperClassIndex
+import com.tang.intellij.lua.ty.*
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Project-wide cache of the class hierarchy. For each named class we store its linearized ancestors (resolved super types, nearest first),
+ * its flattened members (with overridden members removed) and its effective member for each looked up name. Additionally, for each class
+ * name we store the classes that directly inherit from it.
+ *
+ * Like [LuaInferCache], the hierarchy may span any number of files, so the cache is discarded whenever the PSI of the project changes, or
+ * dumb mode is entered/exited.
+ */
+class LuaClassHierarchyCache(private val project: Project) {
+    companion object {
+        private val ANCESTORS_KEY = Key.create<CachedValue<ConcurrentMap<String, Array<ITy>>>>("lua.class.hierarchy.ancestors")
+        private val INHERITORS_KEY = Key.create<CachedValue<ConcurrentMap<InheritorsKey, List<LuaDocTagClass>>>>("lua.class.hierarchy.inheritors")
+        private val MEMBERS_KEY = Key.create<CachedValue<ConcurrentMap<String, Array<TypeMember>>>>("lua.class.hierarchy.members")
+        private val MEMBER_LOOKUP_KEY = Key.create<CachedValue<ConcurrentMap<MemberLookupKey, Optional<TypeMember>>>>("lua.class.hierarchy.member.lookup")
+
+        fun getInstance(project: Project): LuaClassHierarchyCache {
+            return project.getService(LuaClassHierarchyCache::class.java)
+        }
+    }
+
+    private data class InheritorsKey(val className: String, val scope: GlobalSearchScope)
+
+    private data class MemberLookupKey(val className: String, val name: String, val effective: Boolean)
+
+    private fun <K, V> createCachedMap(key: Key<CachedValue<ConcurrentMap<K, V>>>): ConcurrentMap<K, V> {
+        return CachedValuesManager.getManager(project).getCachedValue(project, key, {
+            CachedValueProvider.Result.create(
+                ConcurrentHashMap<K, V>(),
+                PsiModificationTracker.getInstance(project),
+                DumbService.getInstance(project).modificationTracker
+            )
+        }, false)
+    }
+
+    private val ancestorsCache: ConcurrentMap<String, Array<ITy>>
+        get() = createCachedMap(ANCESTORS_KEY)
+
+    private val inheritorsCache: ConcurrentMap<InheritorsKey, List<LuaDocTagClass>>
+        get() = createCachedMap(INHERITORS_KEY)
+
+    private val membersCache: ConcurrentMap<String, Array<TypeMember>>
+        get() = createCachedMap(MEMBERS_KEY)
+
+    private val memberLookupCache: ConcurrentMap<MemberLookupKey, Optional<TypeMember>>
+        get() = createCachedMap(MEMBER_LOOKUP_KEY)
+
+    private fun <K, V> getOrCompute(cache: ConcurrentMap<K, V>, key: K, compute: () -> V): V {
+        cache[key]?.let {
+            return it
+        }
+
+        val bailoutCount = recursionGuardBailoutCount
+        val stamp = RecursionManager.markStack()
+        val value = compute()
+
+        // Don't cache values derived from partial results, due to recursion.
+        if (bailoutCount == recursionGuardBailoutCount && stamp.mayCacheNow()) {
+            return cache.putIfAbsent(key, value) ?: value
+        }
+
+        return value
+    }
+
+    /**
+     * Only named classes have a context-free hierarchy. Anonymous classes (e.g. table expressions) and generic parameters have super types
+     * that depend upon where they're declared or referenced.
+     */
+    private fun isCacheable(context: SearchContext, ty: ITy): Boolean {
+        return !context.isDumb && !context.hasCustomScope && ty is ITyClass && ty !is TyGenericParameter && !ty.isAnonymous
+    }
+
+    private fun computeAncestors(context: SearchContext, start: ITy): Array<ITy> {
+        val processedTys = mutableSetOf<ITy>()
+        val ancestors = mutableListOf<ITy>()
+        var cur: ITy? = start
+
+        while (cur != null) {
+            ProgressManager.checkCanceled()
+
+            if (!processedTys.add(cur)) {
+                break
+            }
+
+            val superTy = cur.getSuperType(context)?.let {
+                Ty.resolve(context, it)
+            }
+
+            if (superTy != null) {
+                ancestors.add(superTy)
+            }
+
+            cur = superTy
+        }
+
+        return ancestors.toTypedArray()
+    }
+
+    /**
+     * Returns the resolved super types of [start], nearest first.
+     */
+    fun getAncestors(context: SearchContext, start: ITy): Array<ITy> {
+        if (!isCacheable(context, start)) {
+            return computeAncestors(context, start)
+        }
+
+        return getOrCompute(ancestorsCache, (start as ITyClass).className) {
+            computeAncestors(context, start)
+        }
+    }
+
+    /**
+     * Whether members of [cls] may be read from a flattened member table. Tables (and doc tables) declare their members on their PSI, rather
+     * than in the class member index, so aren't eligible.
+     */
+    fun hasMemberTable(context: SearchContext, cls: ITyClass): Boolean {
+        return isCacheable(context, cls) && (cls !is IPsiTy<*> || cls is TyPsiDocClass)
+    }
+
+    /**
+     * Returns the flattened members of [cls], its own members followed by those of its ancestors that it doesn't override.
+     *
+     * @param compute computes the members, only called when there's no cached member table for [cls].
+     */
+    fun getMembers(context: SearchContext, cls: ITyClass, compute: () -> Array<TypeMember>): Array<TypeMember> {
+        if (!hasMemberTable(context, cls)) {
+            return compute()
+        }
+
+        return getOrCompute(membersCache, cls.className, compute)
+    }
+
+    /**
+     * Returns the member named [name] of [cls], as located by [compute].
+     *
+     * @param effective whether [compute] locates the effective (explicitly typed, if any) member, rather than the first member.
+     */
+    fun findMember(context: SearchContext, cls: ITyClass, name: String, effective: Boolean, compute: () -> TypeMember?): TypeMember? {
+        if (!hasMemberTable(context, cls)) {
+            return compute()
+        }
+
+        return getOrCompute(memberLookupCache, MemberLookupKey(cls.className, name, effective)) {
+            Optional.ofNullable(compute())
+        }.orElse(null)
+    }
+
+    /**
+     * Returns the classes that directly inherit from the class named [className].
+     */
+    fun getDirectInheritors(className: String, scope: GlobalSearchScope): List<LuaDocTagClass> {
+        if (DumbService.isDumb(project)) {
+            return emptyList()
+        }
+
+        return getOrCompute(inheritorsCache, InheritorsKey(className, scope)) {
+            val inheritors = mutableListOf<LuaDocTagClass>()
+
+            LuaSuperClassIndex.process(className, project, scope) {
+                inheritors.add(it)
+                true
+            }
+
+            inheritors
+        }
+    }
+}
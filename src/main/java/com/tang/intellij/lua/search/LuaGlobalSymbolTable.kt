@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootManager
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.psi.PsiFile
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.ProjectAndLibrariesScope
+import com.tang.intellij.lua.Constants
+import com.tang.intellij.lua.lang.LuaFileType
+import com.tang.intellij.lua.psi.LuaPsiTypeMember
+import com.tang.intellij.lua.stubs.index.LuaClassMemberIndex
+import com.tang.intellij.lua.ty.TyPrimitiveKind
+import com.tang.intellij.lua.ty.TyPrimitiveLiteral
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Names of the members of the global namespace (`_G`) declared within the project and its libraries, for global name completion.
+ *
+ * Unlike the other project caches, the table isn't discarded whenever the PSI changes. Instead, the names declared by each changed file are
+ * re-read from the index (for that file alone) the next time the table is used. Files are considered changed when their PSI changes, or
+ * when they're changed on disk (which needn't produce PSI events for files that aren't loaded). The table is only rebuilt entirely when
+ * dumb mode is entered/exited, the project's roots change, or directories change on disk.
+ */
+class LuaGlobalSymbolTable(private val project: Project) : Disposable {
+    companion object {
+        fun getInstance(project: Project): LuaGlobalSymbolTable {
+            return project.getService(LuaGlobalSymbolTable::class.java)
+        }
+
+        fun onChanged(file: PsiFile) {
+            if (file.isPhysical) {
+                file.project.getServiceIfCreated(LuaGlobalSymbolTable::class.java)?.onChanged(file.viewProvider.virtualFile)
+            }
+        }
+    }
+
+    /**
+     * An immutable snapshot of the table. Tables are built and updated outside of any lock and published atomically, so concurrent callers
+     * never wait on one another.
+     */
+    private class Table(val modificationCount: Long, val namesByFile: Map<VirtualFile, Set<String>>) {
+        val sortedNames: Array<String> = namesByFile.values.flatMapTo(TreeSet()) { it }.toTypedArray()
+    }
+
+    private val table = AtomicReference<Table?>()
+
+    private val dirtyFiles = ConcurrentHashMap.newKeySet<VirtualFile>()
+
+    private val modificationCount: Long
+        get() = DumbService.getInstance(project).modificationTracker.modificationCount + ProjectRootManager.getInstance(project).modificationCount
+
+    init {
+        project.messageBus.connect(this).subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun after(events: MutableList<out VFileEvent>) {
+                onFilesChanged(events)
+            }
+        })
+    }
+
+    private fun onFilesChanged(events: List<VFileEvent>) {
+        val current = table.get() ?: return
+
+        for (event in events) {
+            val file = event.file ?: continue
+
+            if (file.isDirectory) {
+                // Directories may have been created, moved or deleted along with any number of files.
+                table.compareAndSet(current, null)
+                dirtyFiles.clear()
+                return
+            }
+
+            if (file.fileType == LuaFileType.INSTANCE || current.namesByFile.containsKey(file)) {
+                dirtyFiles.add(file)
+            }
+        }
+    }
+
+    private fun onChanged(file: VirtualFile) {
+        if (table.get() != null) {
+            dirtyFiles.add(file)
+        }
+    }
+
+    private fun memberName(context: SearchContext, member: LuaPsiTypeMember): String? {
+        return member.name ?: member.guessIndexType(context)?.let {
+            if (it is TyPrimitiveLiteral && it.primitiveKind == TyPrimitiveKind.String) it.value else null
+        }
+    }
+
+    private fun processGlobals(scope: GlobalSearchScope, process: (file: VirtualFile, name: String) -> Unit) {
+        val context = SearchContext.get(project)
+
+        LuaClassMemberIndex.instance.get(Constants.WORD_G, project, scope).forEach { member ->
+            ProgressManager.checkCanceled()
+
+            val file = member.containingFile?.virtualFile
+            val name = memberName(context, member)
+
+            if (file != null && name != null) {
+                process(file, name)
+            }
+        }
+    }
+
+    private fun build(modificationCount: Long): Table {
+        val names = mutableMapOf<VirtualFile, MutableSet<String>>()
+
+        processGlobals(ProjectAndLibrariesScope(project)) { file, name ->
+            names.getOrPut(file) { mutableSetOf() }.add(name)
+        }
+
+        return Table(modificationCount, names)
+    }
+
+    private fun update(table: Table, files: Collection<VirtualFile>): Table {
+        val scope = ProjectAndLibrariesScope(project)
+        var namesByFile: MutableMap<VirtualFile, Set<String>>? = null
+
+        files.forEach { file ->
+            val names = mutableSetOf<String>()
+
+            if (file.isValid && scope.contains(file)) {
+                processGlobals(GlobalSearchScope.fileScope(project, file).intersectWith(scope)) { _, name ->
+                    names.add(name)
+                }
+            }
+
+            if (names != (table.namesByFile[file] ?: emptySet())) {
+                val updatedNames = namesByFile ?: HashMap(table.namesByFile).also { namesByFile = it }
+
+                if (names.isEmpty()) {
+                    updatedNames.remove(file)
+                } else {
+                    updatedNames[file] = names
+                }
+            }
+        }
+
+        return namesByFile?.let { Table(table.modificationCount, it) } ?: table
+    }
+
+    /**
+     * Returns the names of all global members, sorted.
+     */
+    fun getNames(): Array<String> {
+        if (DumbService.isDumb(project)) {
+            return emptyArray()
+        }
+
+        val modificationCount = this.modificationCount
+        var current = table.get()
+
+        if (current == null || current.modificationCount != modificationCount) {
+            // Files changed from here on are applied to the rebuilt table. If rebuilding is cancelled, the table is left as it was.
+            dirtyFiles.clear()
+            val built = build(modificationCount)
+            table.compareAndSet(current, built)
+            current = built
+        }
+
+        if (dirtyFiles.isNotEmpty()) {
+            val files = dirtyFiles.toList()
+            dirtyFiles.removeAll(files)
+
+            val updated = try {
+                update(current, files)
+            } catch (e: Throwable) {
+                dirtyFiles.addAll(files)
+                throw e
+            }
+
+            if (updated !== current && !table.compareAndSet(current, updated)) {
+                // Another caller published a table first, the files are instead applied to that table when it's next used.
+                dirtyFiles.addAll(files)
+            }
+
+            current = updated
+        }
+
+        return current.sortedNames
+    }
+
+    override fun dispose() {
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Key
+import com.intellij.openapi.util.RecursionManager
+import com.intellij.psi.PsiElement
+import com.intellij.psi.util.CachedValue
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+import com.intellij.psi.util.PsiModificationTracker
+import com.intellij.util.containers.ContainerUtil
+import com.tang.intellij.lua.project.LuaSettings
+import com.tang.intellij.lua.psi.LuaCallExpr
+import com.tang.intellij.lua.psi.LuaFuncBodyOwner
+import com.tang.intellij.lua.psi.LuaPsiTypeGuessable
+import com.tang.intellij.lua.ty.ITy
+import com.tang.intellij.lua.ty.SignatureMatchResult
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Project-wide cache of inferred types and subtype checks, shared between all search contexts (and thus inspections, completion, line
+ * markers etc.)
+ *
+ * Inferred types may depend on declarations in any file, so the cache is discarded whenever the PSI of the project changes, or dumb mode is
+ * entered/exited. Likewise, whenever type safety settings (e.g. strict nil) change.
+ */
+class LuaInferCache(private val project: Project) {
+    companion object {
+        private val KEY = Key.create<CachedValue<ConcurrentMap<CacheKey, ITy>>>("lua.infer.cache")
+        private val VARIANCE_KEY = Key.create<CachedValue<ConcurrentMap<VarianceKey, Boolean>>>("lua.infer.cache.variance")
+        private val SIGNATURE_KEY = Key.create<CachedValue<ConcurrentMap<SignatureKey, Entry<SignatureMatchResult>>>>("lua.infer.cache.signature")
+        private val RETURN_KEY = Key.create<CachedValue<ConcurrentMap<ReturnKey, Entry<ITy>>>>("lua.infer.cache.return")
+
+        // Subtype checks are cheap to store but numerous, the memo is cleared (rather than evicted) once it exceeds this size.
+        private const val MAX_VARIANCE_ENTRIES = 50_000
+
+        // As above, for signatures matched at call sites.
+        private const val MAX_SIGNATURE_ENTRIES = 20_000
+
+        fun getInstance(project: Project): LuaInferCache {
+            return project.getService(LuaInferCache::class.java)
+        }
+    }
+
+    private data class CacheKey(
+        val psi: LuaPsiTypeGuessable,
+        // Parameter optionality and scoped (generic) type names are resolved relative to the context element.
+        val contextElement: PsiElement?,
+        val index: Int,
+        val supportsMultipleResults: Boolean,
+        val abstractGenericScopeNames: Set<String>?
+    )
+
+    /**
+     * Types are compared by identity, structurally equal types may still resolve differently (e.g. lazy classes bound to different PSI).
+     */
+    private class VarianceKey(
+        val target: ITy,
+        val source: ITy,
+        val varianceFlags: Int,
+        val shape: Boolean,
+        val contextElement: PsiElement?,
+        val index: Int,
+        val supportsMultipleResults: Boolean,
+        val abstractGenericScopeNames: Set<String>?
+    ) {
+        private val hash = Objects.hash(
+            System.identityHashCode(target),
+            System.identityHashCode(source),
+            varianceFlags,
+            shape,
+            contextElement,
+            index,
+            supportsMultipleResults,
+            abstractGenericScopeNames
+        )
+
+        override fun equals(other: Any?): Boolean {
+            return other is VarianceKey
+                && target === other.target
+                && source === other.source
+                && varianceFlags == other.varianceFlags
+                && shape == other.shape
+                && contextElement == other.contextElement
+                && index == other.index
+                && supportsMultipleResults == other.supportsMultipleResults
+                && abstractGenericScopeNames == other.abstractGenericScopeNames
+        }
+
+        override fun hashCode(): Int {
+            return hash
+        }
+    }
+
+    /**
+     * As with [VarianceKey], the callee type is compared by identity.
+     */
+    private class SignatureKey(
+        val callee: ITy,
+        val call: LuaCallExpr,
+        val contextElement: PsiElement?,
+        val index: Int,
+        val supportsMultipleResults: Boolean,
+        val abstractGenericScopeNames: Set<String>?
+    ) {
+        private val hash = Objects.hash(
+            System.identityHashCode(callee),
+            call,
+            contextElement,
+            index,
+            supportsMultipleResults,
+            abstractGenericScopeNames
+        )
+
+        override fun equals(other: Any?): Boolean {
+            return other is SignatureKey
+                && callee === other.callee
+                && call == other.call
+                && contextElement == other.contextElement
+                && index == other.index
+                && supportsMultipleResults == other.supportsMultipleResults
+                && abstractGenericScopeNames == other.abstractGenericScopeNames
+        }
+
+        override fun hashCode(): Int {
+            return hash
+        }
+    }
+
+    private data class ReturnKey(
+        val owner: LuaFuncBodyOwner<*>,
+        val index: Int,
+        val supportsMultipleResults: Boolean
+    )
+
+    // Wraps a memoized value, as null results (not callable, unknown return type) are also memoized.
+    private class Entry<T>(val value: T?)
+
+    private val cache: ConcurrentMap<CacheKey, ITy>
+        get() = CachedValuesManager.getManager(project).getCachedValue(project, KEY, {
+            CachedValueProvider.Result.create(
+                ContainerUtil.createConcurrentSoftValueMap<CacheKey, ITy>(),
+                PsiModificationTracker.getInstance(project),
+                DumbService.getInstance(project).modificationTracker,
+                LuaSettings.instance.modificationTracker
+            )
+        }, false)
+
+    private val varianceCache: ConcurrentMap<VarianceKey, Boolean>
+        get() = CachedValuesManager.getManager(project).getCachedValue(project, VARIANCE_KEY, {
+            CachedValueProvider.Result.create(
+                ConcurrentHashMap<VarianceKey, Boolean>(),
+                PsiModificationTracker.getInstance(project),
+                DumbService.getInstance(project).modificationTracker,
+                LuaSettings.instance.modificationTracker
+            )
+        }, false)
+
+    private val signatureCache: ConcurrentMap<SignatureKey, Entry<SignatureMatchResult>>
+        get() = CachedValuesManager.getManager(project).getCachedValue(project, SIGNATURE_KEY, {
+            CachedValueProvider.Result.create(
+                ConcurrentHashMap<SignatureKey, Entry<SignatureMatchResult>>(),
+                PsiModificationTracker.getInstance(project),
+                DumbService.getInstance(project).modificationTracker,
+                LuaSettings.instance.modificationTracker
+            )
+        }, false)
+
+    private val returnCache: ConcurrentMap<ReturnKey, Entry<ITy>>
+        get() = CachedValuesManager.getManager(project).getCachedValue(project, RETURN_KEY, {
+            CachedValueProvider.Result.create(
+                ContainerUtil.createConcurrentSoftValueMap<ReturnKey, Entry<ITy>>(),
+                PsiModificationTracker.getInstance(project),
+                DumbService.getInstance(project).modificationTracker,
+                LuaSettings.instance.modificationTracker
+            )
+        }, false)
+
+    private fun isCacheable(context: SearchContext): Boolean {
+        // Dumb inference is performed when building stubs, often on transient PSI that isn't covered by the modification tracker.
+        return !context.isDumb && !context.hasCustomScope
+    }
+
+    fun isCacheable(context: SearchContext, psi: LuaPsiTypeGuessable): Boolean {
+        return isCacheable(context) && psi.isPhysical
+    }
+
+    fun infer(context: SearchContext, psi: LuaPsiTypeGuessable, compute: () -> ITy?): ITy? {
+        val stats = LuaInferStats.getInstance(project)
+        val key = CacheKey(psi, context.element, context.index, context.supportsMultipleResults, context.abstractGenericScopeNames)
+        val cache = this.cache
+
+        cache[key]?.let {
+            stats.recordHit(psi, it)
+            return it
+        }
+
+        val bailoutCount = recursionGuardBailoutCount
+        val stamp = RecursionManager.markStack()
+        val result = compute()
+
+        // Nested inference may have been cut short by cancellation, in which case the result mustn't outlive this computation.
+        ProgressManager.checkCanceled()
+
+        stats.recordMiss(psi, result)
+
+        if (result != null) {
+            if (bailoutCount == recursionGuardBailoutCount && stamp.mayCacheNow()) {
+                cache.putIfAbsent(key, result)
+            } else {
+                // Result was derived from a partial result, due to recursion.
+                stats.recordSkip(psi, result)
+            }
+        }
+
+        return result
+    }
+
+    /**
+     * Memoizes the result (positive or negative) of a subtype check, [compute], of [target] against [source].
+     *
+     * @param shape whether [compute] is a structural (shape) comparison, rather than a regular contravariance check.
+     */
+    fun contravariantOf(context: SearchContext, target: ITy, source: ITy, varianceFlags: Int, shape: Boolean, compute: () -> Boolean): Boolean {
+        if (!isCacheable(context)) {
+            return compute()
+        }
+
+        val key = VarianceKey(
+            target,
+            source,
+            varianceFlags,
+            shape,
+            context.element,
+            context.index,
+            context.supportsMultipleResults,
+            context.abstractGenericScopeNames
+        )
+        val cache = this.varianceCache
+
+        cache[key]?.let {
+            return it
+        }
+
+        val bailoutCount = recursionGuardBailoutCount
+        val stamp = RecursionManager.markStack()
+        val result = compute()
+
+        ProgressManager.checkCanceled()
+
+        if (bailoutCount == recursionGuardBailoutCount && stamp.mayCacheNow()) {
+            if (cache.size >= MAX_VARIANCE_ENTRIES) {
+                cache.clear()
+            }
+
+            cache[key] = result
+        }
+
+        return result
+    }
+
+    /**
+     * Memoizes the signature of [callee] matched by [call], [compute]. Call sites are typically matched repeatedly i.e. when inferring the
+     * call's type, and again for parameter hints, completion etc. and overloaded functions may have many candidate signatures.
+     */
+    fun matchSignature(context: SearchContext, callee: ITy, call: LuaCallExpr, compute: () -> SignatureMatchResult?): SignatureMatchResult? {
+        if (!isCacheable(context) || !call.isPhysical) {
+            return compute()
+        }
+
+        val key = SignatureKey(
+            callee,
+            call,
+            context.element,
+            context.index,
+            context.supportsMultipleResults,
+            context.abstractGenericScopeNames
+        )
+        val cache = this.signatureCache
+
+        cache[key]?.let {
+            return it.value
+        }
+
+        val bailoutCount = recursionGuardBailoutCount
+        val stamp = RecursionManager.markStack()
+        val result = compute()
+
+        ProgressManager.checkCanceled()
+
+        if (bailoutCount == recursionGuardBailoutCount && stamp.mayCacheNow()) {
+            if (cache.size >= MAX_SIGNATURE_ENTRIES) {
+                cache.clear()
+            }
+
+            cache[key] = Entry(result)
+        }
+
+        return result
+    }
+
+    /**
+     * Memoizes the return type of [owner] inferred from its return statements, [compute]. Return statements are inferred in their own
+     * context, so only the requested result index and multiple results mode affect the inferred type.
+     */
+    fun inferReturnTy(context: SearchContext, owner: LuaFuncBodyOwner<*>, compute: () -> ITy?): ITy? {
+        if (!isCacheable(context) || !owner.isPhysical) {
+            return compute()
+        }
+
+        val key = ReturnKey(owner, context.index, context.supportsMultipleResults)
+        val cache = this.returnCache
+
+        cache[key]?.let {
+            return it.value
+        }
+
+        val bailoutCount = recursionGuardBailoutCount
+        val stamp = RecursionManager.markStack()
+        val result = compute()
+
+        ProgressManager.checkCanceled()
+
+        if (bailoutCount == recursionGuardBailoutCount && stamp.mayCacheNow()) {
+            cache.putIfAbsent(key, Entry(result))
+        }
+
+        return result
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.search
+
+import com.google.gson.GsonBuilder
+import com.intellij.openapi.project.Project
+import com.intellij.psi.PsiElement
+import com.tang.intellij.lua.ty.ITy
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Instrumentation of the type inference hot path. Statistics are grouped by the type of PSI element being inferred, and by the kind of the
+ * inferred type.
+ *
+ * Times are inclusive i.e. the time spent inferring an element includes time spent inferring any elements its inference depends upon.
+ *
+ * Recording is disabled by default, and is enabled by the "Record" action, so that the hot path isn't timed unless statistics are wanted.
+ */
+class LuaInferStats(private val project: Project) {
+    companion object {
+        private const val NO_TYPE = "None"
+
+        fun getInstance(project: Project): LuaInferStats {
+            return project.getService(LuaInferStats::class.java)
+        }
+    }
+
+    data class Snapshot(
+        val project: String,
+        val elementTypes: Map<String, SearchContext.CacheStats.Snapshot>,
+        val tyKinds: Map<String, SearchContext.CacheStats.Snapshot>,
+        val recursionGuardBailouts: Map<String, Int>
+    )
+
+    @Volatile
+    var isEnabled = false
+
+    private val statsByElementType = ConcurrentHashMap<String, SearchContext.CacheStats>()
+    private val statsByTyKind = ConcurrentHashMap<String, SearchContext.CacheStats>()
+    private val bailoutsByGuard = ConcurrentHashMap<String, AtomicInteger>()
+
+    // Mapping PSI element type names to stats
+    val elementTypes: Map<String, SearchContext.CacheStats>
+        get() = statsByElementType
+
+    // Mapping TyKind names to stats
+    val tyKinds: Map<String, SearchContext.CacheStats>
+        get() = statsByTyKind
+
+    private fun elementStats(psi: PsiElement): SearchContext.CacheStats {
+        return statsByElementType.computeIfAbsent(psi.javaClass.simpleName) { SearchContext.CacheStats() }
+    }
+
+    private fun kindStats(ty: ITy?): SearchContext.CacheStats {
+        return statsByTyKind.computeIfAbsent(ty?.kind?.name ?: NO_TYPE) { SearchContext.CacheStats() }
+    }
+
+    fun recordInfer(psi: PsiElement, infer: () -> ITy?): ITy? {
+        if (!isEnabled) {
+            return infer()
+        }
+
+        val start = System.nanoTime()
+        val result = infer()
+        val elapsed = System.nanoTime() - start
+
+        elementStats(psi).call(elapsed, result?.kind?.name ?: NO_TYPE)
+        // Stats are already grouped by the inferred kind.
+        kindStats(result).call(elapsed)
+
+        return result
+    }
+
+    fun recordHit(psi: PsiElement, ty: ITy?) {
+        if (!isEnabled) {
+            return
+        }
+
+        elementStats(psi).hit()
+        kindStats(ty).hit()
+    }
+
+    fun recordMiss(psi: PsiElement, ty: ITy?) {
+        if (!isEnabled) {
+            return
+        }
+
+        elementStats(psi).miss()
+        kindStats(ty).miss()
+    }
+
+    fun recordSkip(psi: PsiElement, ty: ITy?) {
+        if (!isEnabled) {
+            return
+        }
+
+        elementStats(psi).skip()
+        kindStats(ty).skip()
+    }
+
+    fun recordBailout(guardName: String, psi: PsiElement) {
+        if (!isEnabled) {
+            return
+        }
+
+        elementStats(psi).bailout()
+        bailoutsByGuard.computeIfAbsent(guardName) { AtomicInteger() }.incrementAndGet()
+    }
+
+    fun snapshot(): Snapshot {
+        return Snapshot(
+            project.name,
+            statsByElementType.mapValues { it.value.snapshot() }.toSortedMap(),
+            statsByTyKind.mapValues { it.value.snapshot() }.toSortedMap(),
+            bailoutsByGuard.mapValues { it.value.get() }.toSortedMap()
+        )
+    }
+
+    fun toJson(): String {
+        return GsonBuilder().setPrettyPrinting().create().toJson(snapshot())
+    }
+
+    fun reset() {
+        statsByElementType.clear()
+        statsByTyKind.clear()
+        bailoutsByGuard.clear()
+    }
+}
@@ -23,12 +23,26 @@ import com.tang.intellij.lua.psi.LuaNameExpr
 
 private val globalSearchGuardSet = ThreadLocal.withInitial { mutableSetOf<String>() }
 private val recursionGuardSets = ThreadLocal.withInitial { mutableMapOf<String, MutableSet<PsiElement>>() }
+private val recursionGuardBailouts = ThreadLocal.withInitial { IntArray(1) }
+
+/**
+ * Number of times (on the current thread) a guard has prevented recursion. Whilst this value changes during a computation, the result of said
+ * computation was derived from a partially computed result, and must not be cached.
+ */
+val recursionGuardBailoutCount: Int
+    get() = recursionGuardBailouts.get()[0]
+
+private fun onRecursionGuardBailout(guardName: String, psi: PsiElement) {
+    recursionGuardBailouts.get()[0]++
+    LuaInferStats.getInstance(psi.project).recordBailout(guardName, psi)
+}
 
 fun <T>withSearchGuard(psi: LuaNameExpr, action: () -> T?): T? {
     val name = psi.name
     val guardSet = globalSearchGuardSet.get()
 
     if (!guardSet.add(name)) {
+        onRecursionGuardBailout("search", psi)
         return null
     }
 
@@ -48,6 +62,7 @@ fun <T>withRecursionGuard(name: String, psi: PsiElement, dumb: Boolean = false,
     }
 
     if (!guardSet.add(psi)) {
+        onRecursionGuardBailout(guardName, psi)
         return null
     }
 
@@ -16,6 +16,7 @@
 
 package com.tang.intellij.lua.search
 
+import com.intellij.openapi.progress.ProcessCanceledException
 import com.intellij.openapi.project.DumbService
 import com.intellij.openapi.project.Project
 import com.intellij.psi.PsiElement
@@ -26,6 +27,9 @@ import com.tang.intellij.lua.psi.LuaPsiTypeGuessable
 import com.tang.intellij.lua.psi.ScopedTypeSubstitutor
 import com.tang.intellij.lua.ty.ITy
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
 /**
 
@@ -48,6 +52,7 @@ abstract class SearchContext() {
     private var myMultipleResults = false
     private var myInStack = false
     private var myScope: GlobalSearchScope? = null
+    private var myCustomScope = false
     private var myAbstractGenericScopeNames: Set<String>? = null
 
     private val myInferCache = mutableMapOf<LuaPsiTypeGuessable, ITy>()
@@ -58,6 +63,7 @@ abstract class SearchContext() {
         myMultipleResults = sourceContext.myMultipleResults
         myInStack = sourceContext.myInStack
         myScope = sourceContext.myScope
+        myCustomScope = sourceContext.myCustomScope
     }
 
     fun <T> withIndex(index: Int, supportMultipleResults: Boolean = false, action: () -> T): T {
@@ -106,11 +112,17 @@ abstract class SearchContext() {
     val isDumb: Boolean
         get() = myDumb || DumbService.isDumb(project)
 
+    val hasCustomScope: Boolean
+        get() = myCustomScope
+
     fun <T> withScope(scope: GlobalSearchScope, action: () -> T): T {
         val oriScope = myScope
+        val oriCustomScope = myCustomScope
         myScope = scope
+        myCustomScope = true
         val ret = action()
         myScope = oriScope
+        myCustomScope = oriCustomScope
         return ret
     }
 
@@ -130,19 +142,74 @@ abstract class SearchContext() {
         return ret
     }
 
-    data class CacheStats(
-        var hits: Int = 0,
-        var missed: Int = 0,
-        var skips: Int = 0
-    ) {
-        val resolutions = mapOf<String, Int>();
+    class CacheStats {
+        data class Snapshot(
+            val calls: Int,
+            val hits: Int,
+            val missed: Int,
+            val skips: Int,
+            val bailouts: Int,
+            val timeMillis: Double,
+            val resolutions: Map<String, Int>
+        )
+
+        private val myCalls = AtomicInteger()
+        private val myHits = AtomicInteger()
+        private val myMissed = AtomicInteger()
+        private val mySkips = AtomicInteger()
+        private val myBailouts = AtomicInteger()
+        private val myNanos = AtomicLong()
+        private val myResolutions = ConcurrentHashMap<String, AtomicInteger>()
+
+        val calls: Int get() = myCalls.get()
+        val hits: Int get() = myHits.get()
+        val missed: Int get() = myMissed.get()
+        val skips: Int get() = mySkips.get()
+        val bailouts: Int get() = myBailouts.get()
+        val timeNanos: Long get() = myNanos.get()
+
+        // Mapping inferred TyKind names to the number of times they were inferred
+        val resolutions: Map<String, Int>
+            get() = myResolutions.mapValues { it.value.get() }
+
+        fun call(nanos: Long, resolution: String? = null) {
+            myCalls.incrementAndGet()
+            myNanos.addAndGet(nanos)
+            resolution?.let { myResolutions.computeIfAbsent(it) { AtomicInteger() }.incrementAndGet() }
+        }
+
+        fun hit() = myHits.incrementAndGet()
+        fun miss() = myMissed.incrementAndGet()
+        fun skip() = mySkips.incrementAndGet()
+        fun bailout() = myBailouts.incrementAndGet()
+
+        fun snapshot(): Snapshot {
+            return Snapshot(calls, hits, missed, skips, bailouts, timeNanos / 1_000_000.0, resolutions.toSortedMap())
+        }
+
+        override fun toString(): String {
+            return "CacheStats(calls=$calls, hits=$hits, missed=$missed, skips=$skips, bailouts=$bailouts, timeNanos=$timeNanos)"
+        }
     }
 
     // Mapping type names to stats
-    val cacheStats = mapOf<String, CacheStats>()
+    val cacheStats: Map<String, CacheStats>
+        get() = LuaInferStats.getInstance(project).elementTypes
 
     private fun inferAndCache(psi: LuaPsiTypeGuessable): ITy? {
-        return if (index == -1) {
+        return LuaInferStats.getInstance(project).recordInfer(psi) {
+            inferAndCacheInner(psi)
+        }
+    }
+
+    private fun inferAndCacheInner(psi: LuaPsiTypeGuessable): ITy? {
+        val inferCache = LuaInferCache.getInstance(project)
+
+        return if (inferCache.isCacheable(this, psi)) {
+            inferCache.infer(this, psi) {
+                ILuaTypeInfer.infer(this, psi)
+            }
+        } else if (index == -1) {
             val result = myInferCache.getOrDefault(psi, null) ?: ILuaTypeInfer.infer(this, psi)
 
             if (result != null) {
@@ -191,11 +258,15 @@ abstract class SearchContext() {
                 ctx.myInStack = true
                 val result = try {
                     action(ctx)
+                } catch (e: ProcessCanceledException) {
+                    // Must propagate, otherwise a partial result of the outer inference would be returned (and cached).
+                    throw e
                 } catch (e: Exception) {
                     defaultValue
+                } finally {
+                    ctx.myInStack = false
+                    stack.pop()
                 }
-                ctx.myInStack = false
-                stack.pop()
                 assert(size == stack.size)
                 result
             }
@@ -25,6 +25,7 @@ import com.intellij.psi.tree.IStubFileElementType
 import com.intellij.util.io.StringRef
 import com.tang.intellij.lua.lang.LuaLanguage
 import com.tang.intellij.lua.lang.LuaParserDefinition
+import com.tang.intellij.lua.psi.LuaElementType
 import com.tang.intellij.lua.psi.LuaPsiFile
 import com.tang.intellij.lua.search.SearchContext
 
@@ -72,8 +73,13 @@ class LuaFileElementType : IStubFileElementType<LuaFileStub>(LuaLanguage.INSTANC
                 return super.createStubForFile(file)
             }
 
+            /**
+             * Blocks (function bodies, loops, branches etc.) are lazily parsed. For files that are too large to fully parse, we don't descend
+             * into blocks, so they're never parsed. Only top-level statements, doc comments and table fields contribute stubs, which keeps
+             * memory bounded whilst still indexing the classes and members declared by (typically generated) large API files.
+             */
             override fun skipChildProcessingWhenBuildingStubs(parent: ASTNode, node: ASTNode): Boolean {
-                return isTooLarger
+                return isTooLarger && node.elementType == LuaElementType.BLOCK
             }
         }
     }
@@ -92,6 +98,8 @@ class LuaFileElementType : IStubFileElementType<LuaFileStub>(LuaLanguage.INSTANC
         return LuaFileStub(null, StringRef.toString(moduleRef))
     }
 
+    override fun getStubVersion() = LuaLanguage.INDEX_VERSION
+
     override fun getExternalId() = "lua.file"
 }
 
@@ -16,10 +16,17 @@
 
 package com.tang.intellij.lua.stubs.index
 
+import com.intellij.openapi.project.DumbService
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Key
 import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.search.ProjectAndLibrariesScope
 import com.intellij.psi.stubs.StringStubIndexExtension
+import com.intellij.psi.stubs.StubIndex
+import com.intellij.psi.util.CachedValue
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+import com.intellij.psi.util.PsiModificationTracker
 import com.intellij.util.Processor
 import com.intellij.util.containers.ContainerUtil
 import com.tang.intellij.lua.comment.psi.LuaDocTagClass
@@ -41,6 +48,8 @@ class LuaClassIndex : StringStubIndexExtension<LuaDocTagClass>() {
     companion object {
         val instance = LuaClassIndex()
 
+        private val NAMES_KEY = Key.create<CachedValue<Array<String>>>("lua.class.index.names")
+
         fun find(context: SearchContext, name: String): LuaDocTagClass? {
             if (context.isDumb)
                 return null
@@ -61,17 +70,33 @@ class LuaClassIndex : StringStubIndexExtension<LuaDocTagClass>() {
             return ContainerUtil.process(collection, processor)
         }
 
+        /**
+         * Names of the classes declared within the project and its libraries. Keys are filtered by the files that contain them, so no stubs
+         * are loaded, and the names are cached until the PSI changes.
+         */
+        private fun getNames(project: Project): Array<String> {
+            return CachedValuesManager.getManager(project).getCachedValue(project, NAMES_KEY, {
+                val names = mutableListOf<String>()
+
+                StubIndex.getInstance().processAllKeys(StubKeys.CLASS, Processor {
+                    names.add(it)
+                    true
+                }, ProjectAndLibrariesScope(project), null)
+
+                CachedValueProvider.Result.create(
+                    names.toTypedArray(),
+                    PsiModificationTracker.getInstance(project),
+                    DumbService.getInstance(project).modificationTracker
+                )
+            }, false)
+        }
+
         fun processKeys(project: Project, processor: Processor<String>): Boolean {
-            val scope = ProjectAndLibrariesScope(project)
-            val allKeys = instance.getAllKeys(project)
-            for (key in allKeys) {
-                val ret = process(key, project, scope) {
-                    false
-                }
-                if (!ret && !processor.process(key))
-                    return false
+            if (DumbService.isDumb(project)) {
+                return true
             }
-            return true
+
+            return ContainerUtil.process(getNames(project), processor)
         }
     }
 }
@@ -62,8 +62,14 @@ class LuaClassMemberIndex : StringStubIndexExtension<LuaPsiTypeMember>() {
             className: String,
             keys: Collection<String>,
             deep: Boolean,
+            processedClassNames: MutableSet<String>,
             process: ProcessLuaPsiClassMember
         ): Boolean {
+            // Each class in the hierarchy (including aliases) need only be visited once.
+            if (!processedClassNames.add(className)) {
+                return true
+            }
+
             keys.forEach { key ->
                 val classKey = "$className$key"
 
@@ -83,11 +89,11 @@ class LuaClassMemberIndex : StringStubIndexExtension<LuaPsiTypeMember>() {
 
                 if (aliasedTy != null) {
                     LuaClassIndex.find(context, aliasedName)?.type?.let { aliasedClass ->
-                        processClassKeys(context, aliasedClass, aliasedName, keys, deep, process)
+                        processClassKeys(context, aliasedClass, aliasedName, keys, deep, processedClassNames, process)
                     } ?: true
                 } else {
                     // Anonymous type not in the class index i.e. table expression
-                    processClassKeys(context, owner, aliasedName, keys, false, process)
+                    processClassKeys(context, owner, aliasedName, keys, false, processedClassNames, process)
                 }
             }
 
@@ -96,10 +102,12 @@ class LuaClassMemberIndex : StringStubIndexExtension<LuaPsiTypeMember>() {
             }
 
             if (deep) {
+                // Ancestors are visited deeply so that the super classes of their aliases are also visited. However, ancestors are
+                // linearized and cached, thus each ancestor's walk terminates quickly on already processed class names.
                 return Ty.processSuperClasses(context, owner) { superType ->
                     val superClass = (if (superType is ITyGeneric) superType.base else superType) as? ITyClass
                     if (superClass != null) {
-                        processClassKeys(context, superClass, superClass.className, keys, true, process)
+                        processClassKeys(context, superClass, superClass.className, keys, true, processedClassNames, process)
                     } else true
                 }
             }
@@ -109,9 +117,9 @@ class LuaClassMemberIndex : StringStubIndexExtension<LuaPsiTypeMember>() {
 
         private fun processClassKeys(context: SearchContext, cls: ITyClass, keys: Collection<String>, deep: Boolean, process: ProcessLuaPsiClassMember): Boolean {
             return if (cls is TyGenericParameter) {
-                (cls.superClass as? ITyClass)?.let { processClassKeys(context, it, it.className, keys, deep, process) } ?: true
+                (cls.superClass as? ITyClass)?.let { processClassKeys(context, it, it.className, keys, deep, mutableSetOf(), process) } ?: true
             } else {
-                processClassKeys(context, cls, cls.className, keys, deep, process)
+                processClassKeys(context, cls, cls.className, keys, deep, mutableSetOf(), process)
             }
         }
 
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.stubs.index
+
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.util.indexing.*
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.EnumeratorStringDescriptor
+import com.intellij.util.io.KeyDescriptor
+import com.tang.intellij.lua.Constants
+import com.tang.intellij.lua.lang.LuaFileType
+import com.tang.intellij.lua.lang.LuaLanguage
+import com.tang.intellij.lua.psi.*
+import java.io.DataInput
+import java.io.DataOutput
+
+/**
+ * Indexes, by name, the global variables read and written in each file, including accesses via `_G`. Names assigned in files that declare a
+ * module are module members rather than globals, so aren't indexed, however reads of names the module doesn't assign may be globals.
+ */
+class LuaGlobalNameIndex : FileBasedIndexExtension<String, List<LuaGlobalNameIndex.LuaGlobalNameOccurrence>>() {
+
+    companion object {
+        val NAME: ID<String, List<LuaGlobalNameOccurrence>> = ID.create("lua.global.name")
+
+        fun process(name: String, scope: GlobalSearchScope, processor: (VirtualFile, LuaGlobalNameOccurrence) -> Boolean): Boolean {
+            return FileBasedIndex.getInstance().processValues(NAME, name, null, { file, occurrences ->
+                occurrences.all { processor(file, it) }
+            }, scope)
+        }
+
+        /**
+         * Whether the global named [name] is read or written anywhere within [scope].
+         */
+        fun isReferenced(name: String, scope: GlobalSearchScope): Boolean {
+            return !process(name, scope) { _, _ -> false }
+        }
+
+        /**
+         * Whether the global named [name] is assigned anywhere within [scope].
+         */
+        fun isWritten(name: String, scope: GlobalSearchScope): Boolean {
+            return !process(name, scope) { _, occurrence -> !occurrence.isWrite }
+        }
+    }
+
+    override fun getValueExternalizer() = object : DataExternalizer<List<LuaGlobalNameOccurrence>> {
+        override fun save(output: DataOutput, occurrences: List<LuaGlobalNameOccurrence>) {
+            output.writeInt(occurrences.size)
+            occurrences.forEach {
+                output.writeInt(it.offset)
+                output.writeBoolean(it.isWrite)
+            }
+        }
+
+        override fun read(input: DataInput): List<LuaGlobalNameOccurrence> {
+            val list = mutableListOf<LuaGlobalNameOccurrence>()
+            val size = input.readInt()
+            for (i in 0 until size) {
+                val offset = input.readInt()
+                val isWrite = input.readBoolean()
+                list.add(LuaGlobalNameOccurrence(offset, isWrite))
+            }
+            return list
+        }
+    }
+
+    override fun getName() = NAME
+
+    override fun getVersion() = LuaLanguage.INDEX_VERSION
+
+    override fun dependsOnFileContent() = true
+
+    override fun getIndexer() = DataIndexer<String, List<LuaGlobalNameOccurrence>, FileContent> {
+        val map = mutableMapOf<String, MutableList<LuaGlobalNameOccurrence>>()
+        val file = it.psiFile as? LuaPsiFile
+
+        if (file != null) {
+            val add = { name: String, element: LuaExpression<*> ->
+                map.getOrPut(name) { mutableListOf() }.add(LuaGlobalNameOccurrence(element.node.startOffset, element.assignStat != null))
+            }
+
+            val nameExprs = PsiTreeUtil.findChildrenOfType(file, LuaNameExpr::class.java).filter { nameExpr ->
+                nameExpr.name != Constants.WORD_SELF && resolveLocal(null, nameExpr.name, nameExpr) == null
+            }
+
+            if (file.findCachedModuleName() == null) {
+                nameExprs.forEach { add(it.name, it) }
+            } else {
+                // Unlike the inspections, the indexer can't resolve module members declared in other files, so a read is conservatively
+                // considered global unless the module assigns the name in this file.
+                val moduleMembers = mutableSetOf<String>()
+                nameExprs.filter { it.assignStat != null }.mapTo(moduleMembers) { it.name }
+                PsiTreeUtil.findChildrenOfType(file, LuaFuncDefStat::class.java).mapNotNullTo(moduleMembers) { it.name }
+
+                nameExprs.forEach { nameExpr ->
+                    if (nameExpr.assignStat == null && nameExpr.name !in moduleMembers) {
+                        add(nameExpr.name, nameExpr)
+                    }
+                }
+            }
+
+            // _G.name and _G["name"]
+            PsiTreeUtil.findChildrenOfType(file, LuaIndexExpr::class.java).forEach { indexExpr ->
+                val prefix = indexExpr.prefixExpression
+
+                if (prefix is LuaNameExpr && prefix.name == Constants.WORD_G && resolveLocal(null, prefix.name, prefix) == null) {
+                    val name = indexExpr.name ?: (indexExpr.idExpr as? LuaLiteralExpr)?.takeIf {
+                        it.kind == LuaLiteralKind.String
+                    }?.stringValue
+
+                    if (name != null) {
+                        add(name, indexExpr)
+                    }
+                }
+            }
+        }
+
+        map
+    }
+
+    override fun getInputFilter(): FileBasedIndex.InputFilter {
+        return DefaultFileTypeSpecificInputFilter(LuaFileType.INSTANCE)
+    }
+
+    override fun getKeyDescriptor(): KeyDescriptor<String> = EnumeratorStringDescriptor.INSTANCE
+
+    data class LuaGlobalNameOccurrence(val offset: Int, val isWrite: Boolean)
+}
@@ -16,6 +16,7 @@
 
 package com.tang.intellij.lua.stubs.index
 
+import com.intellij.psi.PsiFile
 import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.util.Processor
@@ -40,6 +41,35 @@ class LuaStringArgIndex : FileBasedIndexExtension<String, LuaStringArgIndex.LuaC
                 ContainerUtil.process(v.args, processor)
             }, scope)
         }
+
+        /**
+         * Indexes string call arguments by scanning the file's tokens, without building a PSI tree.
+         */
+        fun indexTokens(text: CharSequence): Map<String, LuaCallOccurrence> {
+            return LuaStringArgScanner(text).scan()
+        }
+
+        /**
+         * Indexes string call arguments by traversing the file's PSI tree.
+         */
+        fun indexPsi(file: PsiFile): Map<String, LuaCallOccurrence> {
+            val map = mutableMapOf<String, LuaCallOccurrence>()
+            PsiTreeUtil.findChildrenOfType(file, LuaCallExpr::class.java).forEach { call ->
+                val isColon = call.isMethodColonCall
+                call.argList.forEachIndexed { index, arg ->
+                    val name = call.expression.name
+                    if (name != null && arg is LuaLiteralExpr && arg.kind == LuaLiteralKind.String) {
+                        val sv = arg.stringValue
+                        if (sv.length in 2..1024) {
+                            val offset = arg.node.startOffset
+                            val occ = map.getOrPut(name) { LuaCallOccurrence(mutableListOf()) }
+                            occ.args.add(LuaCallArg(if (isColon) index + 1 else index, sv, offset))
+                        }
+                    }
+                }
+            }
+            return map
+        }
     }
 
     override fun getValueExternalizer() = object : DataExternalizer<LuaCallOccurrence> {
@@ -72,22 +102,7 @@ class LuaStringArgIndex : FileBasedIndexExtension<String, LuaStringArgIndex.LuaC
     override fun dependsOnFileContent() = true
 
     override fun getIndexer() = DataIndexer<String, LuaCallOccurrence, FileContent> {
-        val map = mutableMapOf<String, LuaCallOccurrence>()
-        PsiTreeUtil.findChildrenOfType(it.psiFile, LuaCallExpr::class.java).forEach { call ->
-            val isColon = call.isMethodColonCall
-            call.argList.forEachIndexed { index, arg ->
-                val name = call.expression.name
-                if (name != null && arg is LuaLiteralExpr && arg.kind == LuaLiteralKind.String) {
-                    val sv = arg.stringValue
-                    if (sv.length in 2..1024) {
-                        val offset = arg.node.startOffset
-                        val occ = map.getOrPut(name) { LuaCallOccurrence(mutableListOf()) }
-                        occ.args.add(LuaCallArg(if (isColon) index + 1 else index, sv, offset))
-                    }
-                }
-            }
-        }
-        map
+        indexTokens(it.contentAsText)
     }
 
     override fun getInputFilter(): FileBasedIndex.InputFilter {
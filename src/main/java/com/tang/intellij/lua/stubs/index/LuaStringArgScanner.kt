@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.stubs.index
+
+import com.intellij.psi.tree.IElementType
+import com.tang.intellij.lua.lang.LuaParserDefinition
+import com.tang.intellij.lua.lang.type.LuaString
+import com.tang.intellij.lua.lexer.LuaLexerAdapter
+import com.tang.intellij.lua.psi.LuaTypes
+import com.tang.intellij.lua.stubs.index.LuaStringArgIndex.LuaCallArg
+import com.tang.intellij.lua.stubs.index.LuaStringArgIndex.LuaCallOccurrence
+
+/**
+ * Locates string literal call arguments, i.e. `name("str")`, `a.name(x, "str")`, `a:name("str")` and `name "str"`, from the token stream
+ * alone. Indexing thereby avoids building a PSI tree for every Lua file, whilst producing the same occurrences as a PSI traversal of the
+ * (well-formed) file.
+ */
+internal class LuaStringArgScanner(private val text: CharSequence) {
+    private class Token(val type: IElementType, val start: Int, val end: Int)
+
+    /**
+     * An open bracket or block (e.g. a closure body passed as an argument). Call frames track the callee and the index of the argument
+     * currently being scanned.
+     */
+    private class Frame(val isCall: Boolean, val name: String?, val isColon: Boolean, val isBlock: Boolean = false) {
+        var argIndex = 0
+    }
+
+    /**
+     * A string argument that's only recorded if it turns out to be the entire argument i.e. it's followed by ',' or ')'.
+     */
+    private class PendingArg(val frame: Frame, val value: String, val offset: Int)
+
+    private val occurrences = mutableMapOf<String, LuaCallOccurrence>()
+    private val frames = ArrayDeque<Frame>()
+
+    // The most recent significant tokens, sufficient to recognize callee names and function declarations.
+    private val history = arrayOfNulls<Token>(HISTORY_SIZE)
+    private var historySize = 0
+
+    private var pending: PendingArg? = null
+
+    private fun previous(n: Int = 0): Token? {
+        return if (n < historySize && n < HISTORY_SIZE) history[(historySize - 1 - n) % HISTORY_SIZE] else null
+    }
+
+    private fun push(token: Token) {
+        history[historySize % HISTORY_SIZE] = token
+        historySize++
+    }
+
+    private fun stringValue(token: Token): String {
+        return LuaString.getContent(text.subSequence(token.start, token.end).toString()).value
+    }
+
+    private fun record(name: String, isColon: Boolean, argIndex: Int, value: String, offset: Int) {
+        if (value.length in 2..1024) {
+            val occ = occurrences.getOrPut(name) { LuaCallOccurrence(mutableListOf()) }
+            occ.args.add(LuaCallArg(if (isColon) argIndex + 1 else argIndex, value, offset))
+        }
+    }
+
+    /**
+     * Whether the ID token [n] tokens back names a function being declared, i.e. `function a.b:c(`.
+     */
+    private fun isFunctionName(n: Int): Boolean {
+        var i = n
+
+        while (true) {
+            val separator = previous(i + 1) ?: return false
+
+            if (separator.type == LuaTypes.DOT || separator.type == LuaTypes.COLON) {
+                if (previous(i + 2)?.type != LuaTypes.ID) {
+                    return false
+                }
+
+                i += 2
+            } else {
+                return separator.type == LuaTypes.FUNCTION
+            }
+        }
+    }
+
+    /**
+     * The callee of a call whose argument list (or string argument) follows the most recent significant token. Returns null if the
+     * preceding expression isn't a name or index, or if the token isn't the start of a call at all.
+     */
+    private fun calleeName(): Pair<String, Boolean>? {
+        val prev = previous() ?: return null
+
+        return when (prev.type) {
+            LuaTypes.ID -> Pair(text.subSequence(prev.start, prev.end).toString(), previous(1)?.type == LuaTypes.COLON)
+            LuaTypes.RBRACK -> {
+                val key = previous(1)
+
+                if (key?.type == LuaTypes.STRING && previous(2)?.type == LuaTypes.LBRACK) {
+                    Pair(stringValue(key), false)
+                } else null
+            }
+            else -> null
+        }
+    }
+
+    private fun isCallParen(): Boolean {
+        val prev = previous() ?: return false
+
+        return when (prev.type) {
+            LuaTypes.ID -> !isFunctionName(0)
+            LuaTypes.RPAREN, LuaTypes.RBRACK, LuaTypes.RCURLY, LuaTypes.STRING -> true
+            else -> false
+        }
+    }
+
+    private fun resolvePending(type: IElementType) {
+        val arg = pending ?: return
+        pending = null
+
+        if ((type == LuaTypes.COMMA || type == LuaTypes.RPAREN) && frames.lastOrNull() === arg.frame) {
+            record(arg.frame.name!!, arg.frame.isColon, arg.frame.argIndex, arg.value, arg.offset)
+        }
+    }
+
+    private fun onToken(token: Token) {
+        resolvePending(token.type)
+
+        when (token.type) {
+            LuaTypes.LPAREN -> {
+                if (isCallParen()) {
+                    val callee = calleeName()
+                    frames.addLast(Frame(true, callee?.first, callee?.second ?: false))
+                } else {
+                    frames.addLast(Frame(false, null, false))
+                }
+            }
+            LuaTypes.LBRACK, LuaTypes.LCURLY -> frames.addLast(Frame(false, null, false))
+            LuaTypes.RPAREN, LuaTypes.RBRACK, LuaTypes.RCURLY -> {
+                if (frames.lastOrNull()?.isBlock == false) {
+                    frames.removeLast()
+                }
+            }
+            // Commas within blocks (e.g. `local a, b = 1, 2` in a closure) don't separate arguments of an enclosing call.
+            LuaTypes.FUNCTION, LuaTypes.DO, LuaTypes.IF, LuaTypes.REPEAT -> frames.addLast(Frame(false, null, false, true))
+            LuaTypes.END, LuaTypes.UNTIL -> {
+                // Brackets left open within the block (i.e. malformed code) are closed along with it.
+                while (frames.isNotEmpty()) {
+                    if (frames.removeLast().isBlock) {
+                        break
+                    }
+                }
+            }
+            LuaTypes.COMMA -> {
+                val frame = frames.lastOrNull()
+
+                if (frame != null && frame.isCall) {
+                    frame.argIndex++
+                }
+            }
+            LuaTypes.STRING -> {
+                val prev = previous()
+                val frame = frames.lastOrNull()
+
+                if (prev != null && frame != null && frame.isCall && frame.name != null
+                        && (prev.type == LuaTypes.COMMA || prev.type == LuaTypes.LPAREN)) {
+                    pending = PendingArg(frame, stringValue(token), token.start)
+                } else {
+                    calleeName()?.let { (name, isColon) ->
+                        record(name, isColon, 0, stringValue(token), token.start)
+                    }
+                }
+            }
+        }
+
+        push(token)
+    }
+
+    fun scan(): Map<String, LuaCallOccurrence> {
+        val lexer = LuaLexerAdapter()
+        lexer.start(text)
+
+        while (true) {
+            val type = lexer.tokenType ?: break
+
+            if (!LuaParserDefinition.WHITE_SPACES.contains(type) && !LuaParserDefinition.COMMENTS.contains(type)) {
+                onToken(Token(type, lexer.tokenStart, lexer.tokenEnd))
+            }
+
+            lexer.advance()
+        }
+
+        return occurrences
+    }
+
+    companion object {
+        private const val HISTORY_SIZE = 64
+    }
+}
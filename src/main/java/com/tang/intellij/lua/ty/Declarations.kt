@@ -21,6 +21,7 @@ import com.tang.intellij.lua.Constants
 import com.tang.intellij.lua.comment.psi.LuaDocTagField
 import com.tang.intellij.lua.ext.recursionGuard
 import com.tang.intellij.lua.psi.*
+import com.tang.intellij.lua.search.LuaInferCache
 import com.tang.intellij.lua.search.PsiSearchContext
 import com.tang.intellij.lua.search.SearchContext
 import com.tang.intellij.lua.search.withRecursionGuard
@@ -56,6 +57,12 @@ private fun inferReturnTyInner(context: SearchContext, owner: LuaFuncBodyOwner<*
     }
 
     //infer from return stat
+    return LuaInferCache.getInstance(context.project).inferReturnTy(context, owner) {
+        inferReturnTyFromReturnStats(context, owner)
+    }
+}
+
+private fun inferReturnTyFromReturnStats(context: SearchContext, owner: LuaFuncBodyOwner<*>): ITy? {
     return withRecursionGuard("inferReturnTyInner", owner, context.isDumb) {
         var type: ITy? = Primitives.VOID
 
@@ -533,7 +533,7 @@ private fun LuaTableExpr.infer(context: SearchContext): ITy {
                     val func = PsiTreeUtil.getStubOrPsiParentOfType(this, LuaFuncBodyOwner::class.java)
                     val ty = func?.varargType
                     if (ty != null) {
-                        return TyArray(ty)
+                        return TyFactory.array(ty)
                     }
                 }
             }
@@ -17,7 +17,6 @@
 package com.tang.intellij.lua.ty
 
 import com.intellij.codeInspection.ProblemHighlightType
-import com.intellij.openapi.progress.ProgressManager
 import com.intellij.psi.PsiElement
 import com.intellij.psi.stubs.StubInputStream
 import com.intellij.psi.stubs.StubOutputStream
@@ -31,6 +30,8 @@ import com.tang.intellij.lua.psi.LuaCallExpr
 import com.tang.intellij.lua.psi.LuaPsiElement
 import com.tang.intellij.lua.psi.LuaTableExpr
 import com.tang.intellij.lua.psi.argList
+import com.tang.intellij.lua.search.LuaClassHierarchyCache
+import com.tang.intellij.lua.search.LuaInferCache
 import com.tang.intellij.lua.search.SearchContext
 import conditionallyCached
 import kotlin.contracts.ExperimentalContracts
@@ -305,7 +306,74 @@ fun ITy.findCandidateSignatures(context: SearchContext, call: LuaCallExpr): Coll
     return findCandidateSignatures(context, if (isStaticMethodUsedAsInstanceMethod) n + 1 else n)
 }
 
+/**
+ * Cheaply determines whether [candidate] cannot possibly match the arguments of [call], without substituting the signature. Only failures
+ * that [matchSignature] would report for the candidate, and that would not make the candidate an inexact match, are detected i.e. missing
+ * required arguments, too many arguments, and arguments of a different primitive kind to their (non-generic) parameter.
+ */
+private fun isCandidateExcluded(
+    candidate: IFunSignature,
+    call: LuaCallExpr,
+    concreteArgTypes: List<MatchFunctionSignatureInspection.ConcreteTypeInfo>
+): Boolean {
+    if (candidate.params == null) {
+        return false
+    }
+
+    var parameterCount = 0
+    var missingArgument = false
+    var primitiveMismatch = false
+
+    // The self parameter's type isn't needed, it's never a primitive.
+    candidate.processParameters(null, call.isMethodColonCall) { i, pi ->
+        parameterCount = i + 1
+        val argTy = concreteArgTypes.getOrNull(i)?.ty
+
+        if (argTy == null) {
+            if (!pi.optional) {
+                missingArgument = true
+                return@processParameters false
+            }
+        } else {
+            val paramTy = pi.ty
+
+            if (paramTy is TyPrimitive && paramTy.primitiveKind != TyPrimitiveKind.Table && paramTy.primitiveKind != TyPrimitiveKind.Function
+                && argTy is ITyPrimitive && argTy.primitiveKind != paramTy.primitiveKind && !argTy.isUnknown && !argTy.isGlobal
+            ) {
+                primitiveMismatch = true
+            }
+        }
+
+        true
+    }
+
+    if (missingArgument) {
+        return true
+    }
+
+    val variadic = candidate.variadicParamTy != null
+    val argCount = call.argList.size
+
+    if (!variadic && parameterCount < concreteArgTypes.size && parameterCount < argCount) {
+        return true
+    }
+
+    // Excess multiple results make a candidate an inexact match, which is still used if no candidate matches exactly.
+    val inexact = !variadic && parameterCount < concreteArgTypes.size && parameterCount >= argCount
+    return primitiveMismatch && !inexact
+}
+
 fun ITy.matchSignature(context: SearchContext, call: LuaCallExpr, processProblem: ProcessProblem? = null): SignatureMatchResult? {
+    if (processProblem != null) {
+        return matchSignatureInner(context, call, processProblem)
+    }
+
+    return LuaInferCache.getInstance(context.project).matchSignature(context, this, call) {
+        matchSignatureInner(context, call, null)
+    }
+}
+
+private fun ITy.matchSignatureInner(context: SearchContext, call: LuaCallExpr, processProblem: ProcessProblem?): SignatureMatchResult? {
     val args = call.argList
     val concreteArgTypes = mutableListOf<MatchFunctionSignatureInspection.ConcreteTypeInfo>()
     var multipleResultsVariadicTypeInfo: MatchFunctionSignatureInspection.ConcreteTypeInfo? = null
@@ -337,7 +405,18 @@ fun ITy.matchSignature(context: SearchContext, call: LuaCallExpr, processProblem
 
     var inexactMatch: SignatureMatchResult? = null
 
+    // When problems aren't being reported, candidates that can't match are skipped without being substituted. Substituted return types are
+    // retained, as the fallback return type is that of the first (not necessarily evaluated) candidate.
+    val excludedCandidates = if (processProblem == null && candidates.size > 1) {
+        candidates.filterTo(mutableSetOf()) { isCandidateExcluded(it, call, concreteArgTypes) }
+    } else null
+    val substitutedReturnTys = if (excludedCandidates?.isNotEmpty() == true) mutableMapOf<IFunSignature, ITy?>() else null
+
     candidates.forEach { candidate ->
+        if (excludedCandidates?.contains(candidate) == true) {
+            return@forEach
+        }
+
         var parameterCount = 0
         var candidateFailed = false
         val signatureProblems = if (problems != null) mutableListOf<Problem>() else null
@@ -407,7 +486,7 @@ fun ITy.matchSignature(context: SearchContext, call: LuaCallExpr, processProblem
                         if (!contravariant) {
                             candidateFailed = true
                         }
-                    } else if (!paramType.contravariantOf(context, argType, varianceFlags)) {
+                    } else if (!Ty.memoizedContravariantOf(context, paramType, argType, varianceFlags)) {
                         candidateFailed = true
                     }
 
@@ -433,7 +512,7 @@ fun ITy.matchSignature(context: SearchContext, call: LuaCallExpr, processProblem
                                 if (!contravariant) {
                                     candidateFailed = true
                                 }
-                            } else if (!varargParamTy.contravariantOf(context, argType, varianceFlags)) {
+                            } else if (!Ty.memoizedContravariantOf(context, varargParamTy, argType, varianceFlags)) {
                                 candidateFailed = true
                             }
                         }
@@ -467,7 +546,7 @@ fun ITy.matchSignature(context: SearchContext, call: LuaCallExpr, processProblem
                         if (!contravariant) {
                             candidateFailed = true
                         }
-                    } else if (!varargParamTy.contravariantOf(context, variadicArg.ty, 0)) {
+                    } else if (!Ty.memoizedContravariantOf(context, varargParamTy, variadicArg.ty, 0)) {
                         candidateFailed = true
                     }
                 }
@@ -482,6 +561,8 @@ fun ITy.matchSignature(context: SearchContext, call: LuaCallExpr, processProblem
             return SignatureMatchResult(candidate, signature, signature.returnTy ?: TyMultipleResults(listOf(Primitives.UNKNOWN), true))
         }
 
+        substitutedReturnTys?.put(candidate, signature.returnTy)
+
         if (fallbackReturnTy == null && signature.returnTy != Primitives.VOID) {
             fallbackReturnTy = signature.returnTy
         }
@@ -503,6 +584,23 @@ fun ITy.matchSignature(context: SearchContext, call: LuaCallExpr, processProblem
         return inexactMatch
     }
 
+    if (substitutedReturnTys != null) {
+        fallbackReturnTy = null
+
+        for (candidate in candidates) {
+            val returnTy = if (substitutedReturnTys.containsKey(candidate)) {
+                substitutedReturnTys[candidate]
+            } else {
+                candidate.substitute(context, call.createSubstitutor(candidate)).returnTy
+            }
+
+            if (returnTy != null && returnTy != Primitives.VOID) {
+                fallbackReturnTy = returnTy
+                break
+            }
+        }
+    }
+
     if (processProblem != null) {
         val multipleCandidates = candidates.size > 1
 
@@ -596,7 +694,9 @@ abstract class Ty(override val kind: TyKind) : ITy {
                 val isContravariant: Boolean? = recursionGuard(resolvedOther, {
                     // Note: ProblemUtil.contravariantOfShape will call back into this method with
                     //       TyVarianceFlags.NON_STRUCTURAL set as a fast nominal check, before checking structurally.
-                    ProblemUtil.contravariantOfShape(context, this, resolvedOther, varianceFlags)
+                    LuaInferCache.getInstance(context.project).contravariantOf(context, this, resolvedOther, varianceFlags, true) {
+                        ProblemUtil.contravariantOfShape(context, this, resolvedOther, varianceFlags)
+                    }
                 })
 
                 if (isContravariant == false) {
@@ -762,27 +862,20 @@ abstract class Ty(override val kind: TyKind) : ITy {
             }
         }
 
-        fun processSuperClasses(context: SearchContext, start: ITy, processor: (ITy) -> Boolean): Boolean {
-            val processedTys = mutableSetOf<ITy>()
-            var cur: ITy? = start
-
-            while (cur != null) {
-                ProgressManager.checkCanceled()
-
-                if (!processedTys.add(cur)) {
-                    return true
-                }
-
-                val superTy = cur.getSuperType(context)?.let {
-                    Ty.resolve(context, it)
-                }
+        /**
+         * Equivalent to target.contravariantOf(context, source, varianceFlags), but memoized until the project's PSI is next modified.
+         */
+        fun memoizedContravariantOf(context: SearchContext, target: ITy, source: ITy, varianceFlags: Int): Boolean {
+            return LuaInferCache.getInstance(context.project).contravariantOf(context, target, source, varianceFlags, false) {
+                target.contravariantOf(context, source, varianceFlags)
+            }
+        }
 
-                if (superTy != null) {
-                    if (!processor(superTy))
-                        return false
+        fun processSuperClasses(context: SearchContext, start: ITy, processor: (ITy) -> Boolean): Boolean {
+            LuaClassHierarchyCache.getInstance(context.project).getAncestors(context, start).forEach {
+                if (!processor(it)) {
+                    return false
                 }
-
-                cur = superTy
             }
 
             return true
@@ -28,7 +28,7 @@ interface ITyArray : ITy {
 open class TyArray(override val base: ITy) : Ty(TyKind.Array), ITyArray {
 
     override fun equals(other: Any?): Boolean {
-        return other is ITyArray && base == other.base
+        return this === other || (other is ITyArray && base == other.base)
     }
 
     override fun equals(context: SearchContext, other: ITy, equalityFlags: Int): Boolean {
@@ -45,7 +45,7 @@ open class TyArray(override val base: ITy) : Ty(TyKind.Array), ITyArray {
     }
 
     override fun contravariantOf(context: SearchContext, other: ITy, varianceFlags: Int): Boolean {
-        if (super.contravariantOf(context, other, varianceFlags)) {
+        if (this === other || super.contravariantOf(context, other, varianceFlags)) {
             return true
         }
 
@@ -99,7 +99,7 @@ open class TyArray(override val base: ITy) : Ty(TyKind.Array), ITyArray {
         val substitutedBase = TyMultipleResults.getResult(context, base.substitute(context, substitutor))
 
         return if (substitutedBase !== base) {
-            TyArray(substitutedBase)
+            TyFactory.array(substitutedBase)
         } else {
             this
         }
@@ -184,7 +184,7 @@ object TyArraySerializer : TySerializer<ITyArray>() {
 
     override fun deserializeTy(flags: Int, stream: StubInputStream): ITyArray {
         val base = Ty.deserialize(stream)
-        return TyArray(base)
+        return TyFactory.array(base)
     }
 }
 
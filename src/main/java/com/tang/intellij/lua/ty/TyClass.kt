@@ -32,6 +32,7 @@ import com.tang.intellij.lua.comment.psi.LuaDocTagField
 import com.tang.intellij.lua.psi.*
 import com.tang.intellij.lua.psi.search.LuaClassInheritorsSearch
 import com.tang.intellij.lua.psi.search.LuaShortNamesManager
+import com.tang.intellij.lua.search.LuaClassHierarchyCache
 import com.tang.intellij.lua.search.ProjectSearchContext
 import com.tang.intellij.lua.search.PsiSearchContext
 import com.tang.intellij.lua.search.SearchContext
@@ -74,7 +75,7 @@ interface ITyClass : ITyResolvable {
                     val aliasTy = aliasDef.type
 
                     if (genericArgs != null) {
-                        TyGeneric(genericArgs, aliasTy)
+                        TyFactory.generic(genericArgs, aliasTy)
                     } else {
                         aliasTy
                     }
@@ -243,72 +244,123 @@ abstract class TyClass(override val className: String,
         return true
     }
 
-    override fun processMembers(context: SearchContext, deep: Boolean, process: ProcessTypeMember): Boolean {
-        lazyInit(context)
-
-        val clazzName = className
-        val project = context.project
-
-        val manager = LuaShortNamesManager.getInstance(project)
+    private fun getOwnMembers(context: SearchContext): List<LuaPsiTypeMember> {
+        val manager = LuaShortNamesManager.getInstance(context.project)
         val members = mutableListOf<LuaPsiTypeMember>()
-        members.addAll(manager.getClassMembers(context, clazzName))
+        members.addAll(manager.getClassMembers(context, className))
 
         processAlias { alias ->
             val classMembers = manager.getClassMembers(context, alias)
             members.addAll(classMembers)
         }
 
-        for (member in members) {
-            ProgressManager.checkCanceled()
+        return members
+    }
 
-            if (!process(this, member)) {
-                return false
+    private fun processInheritedMembers(context: SearchContext, members: List<TypeMember>, process: ProcessTypeMember): Boolean {
+        val memberNames = mutableSetOf<String>()
+        val memberIndexTys = mutableListOf<ITy>()
+
+        val addMember = { member: TypeMember ->
+            val memberName = member.name
+
+            if (memberName != null) {
+                memberNames.add(memberName)
+            } else {
+                member.guessIndexType(context)?.let {
+                    memberIndexTys.add(it)
+                }
             }
         }
 
-        // super
-        if (deep) {
-            val memberNames = mutableListOf<String>()
-            val memberIndexTys = mutableListOf<ITy>()
+        members.forEach(addMember)
 
-            for (member in members) {
-                val memberName = member.name
+        return processSuperClasses(context, this) {
+            val superMembers = mutableListOf<TypeMember>()
+
+            val result = it.processMembers(context, false) { _, superMember ->
+                val superMemberName = superMember.name
 
-                if (memberName != null) {
-                    memberNames.add(memberName)
+                val memberOverridden = if (superMemberName != null) {
+                    memberNames.contains(superMemberName)
                 } else {
-                    member.guessIndexType(context)?.let {
-                        memberIndexTys.add(it)
-                    }
+                    superMember.guessIndexType(context)?.let { superMemberIndexTy ->
+                        memberIndexTys.find { memberIndexTy ->
+                            memberIndexTy === superMemberIndexTy || memberIndexTy.contravariantOf(context, superMemberIndexTy, 0)
+                        } != null
+                    } ?: false
+                }
+
+                if (memberOverridden) {
+                    true
+                } else {
+                    superMembers.add(superMember)
+                    process(this, superMember)
                 }
             }
 
-            return processSuperClasses(context, this) {
-                it.processMembers(context, false) { _, superMember ->
-                    val superMemberName = superMember.name
+            // A super class' members override those of its own ancestors.
+            superMembers.forEach(addMember)
+            result
+        }
+    }
 
-                    val memberOverridden = if (superMemberName != null) {
-                        memberNames.contains(superMemberName)
-                    } else {
-                        superMember.guessIndexType(context)?.let { superMemberIndexTy ->
-                            memberIndexTys.find { memberIndexTy ->
-                                memberIndexTy === superMemberIndexTy || memberIndexTy.contravariantOf(context, superMemberIndexTy, 0)
-                            } != null
-                        } ?: false
-                    }
+    override fun processMembers(context: SearchContext, deep: Boolean, process: ProcessTypeMember): Boolean {
+        lazyInit(context)
 
-                    if (memberOverridden) {
-                        true
-                    } else {
-                        process(this, superMember)
-                    }
+        val hierarchyCache = LuaClassHierarchyCache.getInstance(context.project)
+
+        if (deep && hierarchyCache.hasMemberTable(context, this)) {
+            val members = hierarchyCache.getMembers(context, this) {
+                val members = mutableListOf<TypeMember>()
+                members.addAll(getOwnMembers(context))
+                processInheritedMembers(context, members.toList()) { _, member ->
+                    members.add(member)
+                }
+                members.toTypedArray()
+            }
+
+            for (member in members) {
+                ProgressManager.checkCanceled()
+
+                if (!process(this, member)) {
+                    return false
                 }
             }
+
+            return true
+        }
+
+        val members = getOwnMembers(context)
+
+        for (member in members) {
+            ProgressManager.checkCanceled()
+
+            if (!process(this, member)) {
+                return false
+            }
+        }
+
+        // super
+        if (deep) {
+            return processInheritedMembers(context, members, process)
         }
 
         return true
     }
 
+    override fun findMember(context: SearchContext, name: String): TypeMember? {
+        return LuaClassHierarchyCache.getInstance(context.project).findMember(context, this, name, false) {
+            super<Ty>.findMember(context, name)
+        }
+    }
+
+    override fun findEffectiveMember(context: SearchContext, name: String): TypeMember? {
+        return LuaClassHierarchyCache.getInstance(context.project).findMember(context, this, name, true) {
+            super<Ty>.findEffectiveMember(context, name)
+        }
+    }
+
     override fun processSignatures(context: SearchContext, processor: Processor<IFunSignature>): Boolean {
         lazyInit(context)
 
@@ -538,7 +590,7 @@ fun createTableGenericFromMembers(context: SearchContext, ty: ITy): ITyGeneric {
     val isEmpty = ty.processMembers(context) { _, _ -> false }
 
     if (isEmpty) {
-        return TyGeneric(arrayOf(Primitives.UNKNOWN, Primitives.UNKNOWN), Primitives.TABLE)
+        return TyFactory.generic(arrayOf(Primitives.UNKNOWN, Primitives.UNKNOWN), Primitives.TABLE)
     }
 
     var keyType: ITy? = null
@@ -609,7 +661,7 @@ fun createTableGenericFromMembers(context: SearchContext, ty: ITy): ITyGeneric {
         keyType?.isUnknown == false || elementType?.isUnknown == false
     }
 
-    return TyGeneric(arrayOf(keyType ?: Primitives.UNKNOWN, elementType ?: Primitives.UNKNOWN), Primitives.TABLE)
+    return TyFactory.generic(arrayOf(keyType ?: Primitives.UNKNOWN, elementType ?: Primitives.UNKNOWN), Primitives.TABLE)
 }
 
 fun getTableTypeName(table: LuaTableExpr): String {
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.lua.ty
+
+import com.google.common.collect.Interners
+
+/**
+ * Creates structural types, weakly interning them so that identical types share a single instance.
+ *
+ * Only types composed entirely of context-free types are interned. Types that refer to PSI (directly, or via a lazily resolved class) behave
+ * differently depending on where they were declared, so must not be shared.
+ *
+ * Functions are never interned, as signature equality disregards parameter names, which are user visible. Nor are generic parameters and
+ * serialized classes, as class equality disregards their super class, generic parameters etc. so a substituted parameter would otherwise be
+ * replaced by a previously interned one.
+ */
+object TyFactory {
+    private val arrays = Interners.newWeakInterner<TyArray>()
+    private val generics = Interners.newWeakInterner<TyGeneric>()
+    private val unions = Interners.newWeakInterner<TyUnion>()
+
+    private fun isInternable(ty: ITy): Boolean {
+        if (ty is IPsiTy<*>) {
+            return false
+        }
+
+        return when (ty) {
+            is TyPrimitiveLiteral, is ITyPrimitive, is TyNil, is TyUnknown, is TyVoid -> true
+            is TyLazyClass -> ty.psi == null
+            is TyUnion -> ty.getChildTypes().all { isInternable(it) }
+            is TyArray -> ty.javaClass == TyArray::class.java && isInternable(ty.base)
+            is TyGeneric -> ty.javaClass == TyGeneric::class.java && isInternable(ty.base) && ty.args.all { isInternable(it) }
+            else -> false
+        }
+    }
+
+    fun array(base: ITy): TyArray {
+        val array = TyArray(base)
+        return if (isInternable(base)) arrays.intern(array) else array
+    }
+
+    fun generic(args: Array<out ITy>, base: ITy): TyGeneric {
+        val generic = TyGeneric(args, base)
+        return if (isInternable(base) && args.all { isInternable(it) }) generics.intern(generic) else generic
+    }
+
+    fun union(childTys: Collection<ITy>): TyUnion {
+        val union = TyUnion(childTys)
+        return if (union.getChildTypes().all { isInternable(it) }) unions.intern(union) else union
+    }
+}
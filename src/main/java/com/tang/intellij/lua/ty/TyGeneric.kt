@@ -224,6 +224,10 @@ open class TyGeneric(override val args: Array<out ITy>, override val base: ITy)
     }
 
     override fun contravariantOf(context: SearchContext, other: ITy, varianceFlags: Int): Boolean {
+        if (this === other) {
+            return true
+        }
+
         val resolvedBase = Ty.resolve(context, base)
         val resolvedOther = Ty.resolve(context, other)
 
@@ -382,7 +386,7 @@ object TyGenericSerializer : TySerializer<ITyGeneric>() {
         for (i in 0 until size) {
             params.add(Ty.deserialize(stream))
         }
-        return TyGeneric(params.toTypedArray(), base)
+        return TyFactory.generic(params.toTypedArray(), base)
     }
 
     override fun serializeTy(ty: ITyGeneric, stream: StubOutputStream) {
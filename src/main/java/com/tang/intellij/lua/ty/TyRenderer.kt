@@ -16,8 +16,10 @@
 
 package com.tang.intellij.lua.ty
 
+import com.intellij.util.containers.CollectionFactory
 import com.tang.intellij.lua.Constants
 import com.tang.intellij.lua.search.SearchContext
+import java.util.concurrent.ConcurrentMap
 
 interface ITyRenderer {
     fun render(ty: ITy): String
@@ -32,33 +34,101 @@ private val MaxSingleLineTableMembers = 3;
 private val MaxSingleLineUnionMembers = 5;
 private val MaxSingleLineGenericParams = 5;
 
-private fun joinSingleLineOrWrap(list: Collection<String>, maxOnLine: Int, divider: String, prefix: String = "", suffix: String = "", spaceWrapItems: Boolean = prefix.isNotEmpty()): String {
-    return if (list.size == 0) {
-        prefix + suffix
+private fun StringBuilder.appendSingleLineOrWrap(list: Collection<String>, maxOnLine: Int, divider: String, prefix: String = "", suffix: String = "", spaceWrapItems: Boolean = prefix.isNotEmpty()) {
+    if (list.size == 0) {
+        append(prefix).append(suffix)
     } else if (list.size <= maxOnLine) {
-        list.joinToString(divider + " ", if (spaceWrapItems) prefix + " " else prefix, if (spaceWrapItems) " " + suffix else suffix)
+        append(prefix)
+
+        if (spaceWrapItems) {
+            append(" ")
+        }
+
+        list.forEachIndexed { i, it ->
+            if (i > 0) {
+                append(divider).append(" ")
+            }
+
+            append(it)
+        }
+
+        if (spaceWrapItems) {
+            append(" ")
+        }
+
+        append(suffix)
     } else {
-        list.joinToString(divider + "\n  ", prefix + "\n  ", "\n" + suffix)
+        append(prefix).append("\n  ")
+
+        list.forEachIndexed { i, it ->
+            if (i > 0) {
+                append(divider).append("\n  ")
+            }
+
+            append(it)
+        }
+
+        append("\n").append(suffix)
     }
 }
 
+private fun joinSingleLineOrWrap(list: Collection<String>, maxOnLine: Int, divider: String, prefix: String = "", suffix: String = "", spaceWrapItems: Boolean = prefix.isNotEmpty()): String {
+    return buildString {
+        appendSingleLineOrWrap(list, maxOnLine, divider, prefix, suffix, spaceWrapItems)
+    }
+}
+
+/**
+ * A rendered type, along with the depth of nested types that were visited in order to render it.
+ */
+private class RenderedTy(val text: String, val height: Int)
+
 open class TyRenderer : TyVisitor(), ITyRenderer {
-    private var visitedTys = ThreadLocal.withInitial { mutableSetOf<ITy>() }
+    /**
+     * State of the renders in progress on a thread. Nested renders share the visitor, redirecting it to their own builder.
+     */
+    private inner class RenderState {
+        val visitedTys = mutableSetOf<ITy>()
+        val visitor = RenderVisitor(this)
+        var sb = StringBuilder()
+
+        // The deepest recursion depth reached by the current render.
+        var maxDepth = 0
+
+        // Whether the current render was truncated, or involved types whose rendering may yet change, in which case it's not cached.
+        var incomplete = false
+    }
+
+    private val renderState = ThreadLocal.withInitial { RenderState() }
 
-    private fun withRecursionGuard(ty: ITy, sb: StringBuilder, block: () -> Unit) {
-        if (!visitedTys.get().add(ty)) {
-            sb.append("{...}");
+    /**
+     * Types rendered by this renderer, keyed by identity. Types are immutable, however rendering of some types (e.g. anonymous tables)
+     * involves inference, so as with [ITy.displayName], these are only cached outside of dumb mode.
+     */
+    private val renderCache: ConcurrentMap<ITy, RenderedTy> = CollectionFactory.createConcurrentWeakIdentityMap()
+
+    private fun withRecursionGuard(ty: ITy, state: RenderState, block: () -> Unit) {
+        if (!state.visitedTys.add(ty)) {
+            state.sb.append("{...}");
+            state.incomplete = true
             return;
         }
 
         try {
-            if (visitedTys.get().size > MaxRecursionDepth) {
-                sb.append("<...>")
+            if (state.visitedTys.size > MaxRecursionDepth) {
+                state.sb.append("<...>")
+                state.incomplete = true
             } else {
+                state.maxDepth = Math.max(state.maxDepth, state.visitedTys.size)
+
+                if (ty is IPsiTy<*> && SearchContext.get(ty.psi.project).isDumb) {
+                    state.incomplete = true
+                }
+
                 block()
             }
         } finally {
-            visitedTys.get().remove(ty)
+            state.visitedTys.remove(ty)
         }
     }
 
@@ -69,142 +139,179 @@ open class TyRenderer : TyVisitor(), ITyRenderer {
     }
 
     override fun render(ty: ITy, sb: StringBuilder) {
-        ty.accept(object : TyVisitor() {
-            override fun visitTy(ty: ITy) {
-                withRecursionGuard(ty, sb) {
-                    when (ty) {
-                        is ITyPrimitive -> sb.append(renderTypeName(ty.displayName))
-                        is TyPrimitiveLiteral -> sb.append(renderTypeName(ty.displayName))
-                        is TyVoid -> sb.append(renderTypeName(Constants.WORD_VOID))
-                        is TyUnknown -> sb.append(renderTypeName(Constants.WORD_ANY))
-                        is TyNil -> sb.append(renderTypeName(Constants.WORD_NIL))
-                        is ITyGeneric -> {
-                            val base = ty.base
-
-                            if (base is TyDocTable) {
-                                visitClass(base)
-                            } else {
-                                val list = ty.args.map { render(it) }
-                                val baseName = when (base) {
-                                    is ITyClass -> {
-                                        base.className
-                                    }
-
-                                    is ITyAlias -> {
-                                        base.name
-                                    }
-
-                                    else -> {
-                                        base.displayName
-                                    }
+        val state = renderState.get()
+        val depth = state.visitedTys.size
+        val cached = renderCache[ty]
+
+        // A complete render contains no cycles back to the types enclosing it, so it can be reused anywhere that its nested types won't
+        // exceed the maximum depth.
+        if (cached != null && depth + cached.height <= MaxRecursionDepth) {
+            sb.append(cached.text)
+            state.maxDepth = Math.max(state.maxDepth, depth + cached.height)
+            return
+        }
+
+        val outerSb = state.sb
+        val outerMaxDepth = state.maxDepth
+        val outerIncomplete = state.incomplete
+        val start = sb.length
+
+        state.sb = sb
+        state.maxDepth = depth
+        state.incomplete = false
+
+        try {
+            ty.accept(state.visitor)
+
+            if (!state.incomplete) {
+                renderCache[ty] = RenderedTy(sb.substring(start), state.maxDepth - depth)
+            }
+        } finally {
+            state.sb = outerSb
+            state.maxDepth = Math.max(outerMaxDepth, state.maxDepth)
+            state.incomplete = outerIncomplete || state.incomplete
+        }
+    }
+
+    private inner class RenderVisitor(private val state: RenderState) : TyVisitor() {
+        override fun visitTy(ty: ITy) {
+            withRecursionGuard(ty, state) {
+                val sb = state.sb
+
+                when (ty) {
+                    is ITyPrimitive -> sb.append(renderTypeName(ty.displayName))
+                    is TyPrimitiveLiteral -> sb.append(renderTypeName(ty.displayName))
+                    is TyVoid -> sb.append(renderTypeName(Constants.WORD_VOID))
+                    is TyUnknown -> sb.append(renderTypeName(Constants.WORD_ANY))
+                    is TyNil -> sb.append(renderTypeName(Constants.WORD_NIL))
+                    is ITyGeneric -> {
+                        val base = ty.base
+
+                        if (base is TyDocTable) {
+                            visitClass(base)
+                        } else {
+                            val list = ty.args.map { render(it) }
+                            val baseName = when (base) {
+                                is ITyClass -> {
+                                    base.className
+                                }
+
+                                is ITyAlias -> {
+                                    base.name
+                                }
+
+                                else -> {
+                                    base.displayName
                                 }
-                                sb.append("${baseName}${renderGenericParams(list)}")
                             }
+                            sb.append(baseName).append(renderGenericParams(list))
                         }
+                    }
 
-                        is TyGenericParameter -> {
+                    is TyGenericParameter -> {
 
-                        }
+                    }
 
-                        is TySnippet -> sb.append(ty.toString())
-                        else -> {
-                            error("")
-                        }
+                    is TySnippet -> sb.append(ty.toString())
+                    else -> {
+                        error("")
                     }
                 }
             }
+        }
 
-            override fun visitAlias(alias: ITyAlias) {
-                withRecursionGuard(alias, sb) {
-                    sb.append(renderAlias(alias))
-                }
+        override fun visitAlias(alias: ITyAlias) {
+            withRecursionGuard(alias, state) {
+                state.sb.append(renderAlias(alias))
             }
+        }
 
-            override fun visitClass(clazz: ITyClass) {
-                withRecursionGuard(clazz, sb) {
-                    sb.append(renderClass(clazz))
-                }
+        override fun visitClass(clazz: ITyClass) {
+            withRecursionGuard(clazz, state) {
+                state.sb.append(renderClass(clazz))
             }
+        }
 
-            override fun visitUnion(u: TyUnion) {
-                withRecursionGuard(u, sb) {
-                    val set = mutableSetOf<String>()
+        override fun visitUnion(u: TyUnion) {
+            withRecursionGuard(u, state) {
+                val set = mutableSetOf<String>()
 
-                    u.acceptChildren(object : TyVisitor() {
-                        override fun visitTy(ty: ITy) {
-                            val s = render(ty)
-                            if (s.isNotEmpty()) {
-                                set.add(if (isUnionPunctuationRequired(ty)) "(${s})" else s)
-                            }
+                u.acceptChildren(object : TyVisitor() {
+                    override fun visitTy(ty: ITy) {
+                        val s = render(ty)
+                        if (s.isNotEmpty()) {
+                            set.add(if (isUnionPunctuationRequired(ty)) "(${s})" else s)
                         }
-                    })
-
-                    val list = set.asSequence().take(MaxRenderedUnionMembers).toMutableList()
-
-                    if (set.size > MaxRenderedUnionMembers) {
-                        list.add("...")
                     }
+                })
 
-                    sb.append(if (set.isEmpty()) {
-                        Constants.WORD_ANY
-                    } else {
-                        joinSingleLineOrWrap(list, MaxSingleLineUnionMembers, " |")
-                    })
+                val list = set.asSequence().take(MaxRenderedUnionMembers).toMutableList()
+
+                if (set.size > MaxRenderedUnionMembers) {
+                    list.add("...")
                 }
-            }
 
-            override fun visitFun(f: ITyFunction) {
-                withRecursionGuard(f, sb) {
-                    sb.append("fun")
-                    renderSignature(sb, f.mainSignature)
+                if (set.isEmpty()) {
+                    state.sb.append(Constants.WORD_ANY)
+                } else {
+                    state.sb.appendSingleLineOrWrap(list, MaxSingleLineUnionMembers, " |")
                 }
             }
+        }
 
-            override fun visitArray(array: ITyArray) {
-                withRecursionGuard(array, sb) {
-                    val base = array.base
-                    val parenthesesRequired = isArrayPunctuationRequired(base)
+        override fun visitFun(f: ITyFunction) {
+            withRecursionGuard(f, state) {
+                state.sb.append("fun")
+                renderSignature(state.sb, f.mainSignature)
+            }
+        }
 
-                    if (parenthesesRequired) {
-                        sb.append("(")
-                    }
+        override fun visitArray(array: ITyArray) {
+            withRecursionGuard(array, state) {
+                val sb = state.sb
+                val base = array.base
+                val parenthesesRequired = isArrayPunctuationRequired(base)
 
-                    array.base.accept(this)
+                if (parenthesesRequired) {
+                    sb.append("(")
+                }
 
-                    if (parenthesesRequired) {
-                        sb.append(")")
-                    }
+                array.base.accept(this)
 
-                    sb.append("[]")
+                if (parenthesesRequired) {
+                    sb.append(")")
                 }
+
+                sb.append("[]")
             }
+        }
 
-            override fun visitMultipleResults(multipleResults: TyMultipleResults) {
-                withRecursionGuard(multipleResults, sb) {
-                    val results = multipleResults.list
-                    val parenthesesRequired = multipleResults.variadic && isReturnPunctuationRequired(results.last())
+        override fun visitMultipleResults(multipleResults: TyMultipleResults) {
+            withRecursionGuard(multipleResults, state) {
+                val sb = state.sb
+                val results = multipleResults.list
+                val parenthesesRequired = multipleResults.variadic && isReturnPunctuationRequired(results.last())
 
-                    results.asSequence().take(results.size - 1).forEach {
-                        sb.append(render(it))
-                        sb.append(", ")
-                    }
+                results.asSequence().take(results.size - 1).forEach {
+                    render(it, sb)
+                    sb.append(", ")
+                }
 
-                    if (parenthesesRequired) {
-                        sb.append("(")
-                    }
+                if (parenthesesRequired) {
+                    sb.append("(")
+                }
 
-                    sb.append(render(results.last()))
+                render(results.last(), sb)
 
-                    if (parenthesesRequired) {
-                        sb.append(")")
-                    }
+                if (parenthesesRequired) {
+                    sb.append(")")
+                }
 
-                    if (multipleResults.variadic) {
-                        sb.append("...")
-                    }
+                if (multipleResults.variadic) {
+                    sb.append("...")
                 }
             }
-        })
+        }
     }
 
     override fun renderSignature(sb: StringBuilder, signature: IFunSignature) {
@@ -181,16 +181,17 @@ class GenericAnalyzer(
                     val currentType = it.substitute(paramContext, paramSubstitutor)
                     val substitutedGenericParam = genericParam.substitute(paramContext, genericParamResolutionSubstitutor)
 
-                    paramTyMap[genericName] = if (substitutedGenericParam.contravariantOf(
+                    paramTyMap[genericName] = if (Ty.memoizedContravariantOf(
                             context,
+                            substitutedGenericParam,
                             currentType,
                             TyVarianceFlags.STRICT_UNKNOWN
                         )) {
                         if (mappedType == null) {
                             currentType
-                        } else if (mappedType.contravariantOf(context, currentType, varianceFlags(currentType))) {
+                        } else if (Ty.memoizedContravariantOf(context, mappedType, currentType, varianceFlags(currentType))) {
                             mappedType
-                        } else if (currentType.contravariantOf(context, mappedType, varianceFlags(mappedType))) {
+                        } else if (Ty.memoizedContravariantOf(context, currentType, mappedType, varianceFlags(mappedType))) {
                             currentType
                         } else {
                             mappedType.union(context, currentType)
@@ -343,7 +344,7 @@ abstract class TySubstitutor : ITySubstitutor {
             if (generic is TyDocTableGeneric) {
                 TyDocTableGeneric(generic.psi, substitutedArgs.first(), substitutedArgs.last())
             } else {
-                TyGeneric(substitutedArgs.toTypedArray(), substitutedBase)
+                TyFactory.generic(substitutedArgs.toTypedArray(), substitutedBase)
             }
         } else {
             generic
@@ -479,7 +480,7 @@ class TyGenericParameterSubstitutor(val map: Map<String, ITy>) : TySubstitutor()
                 }
 
                 if (paramsSubstituted) {
-                    return TyGeneric(substitutedParams.toTypedArray(), clazz)
+                    return TyFactory.generic(substitutedParams.toTypedArray(), clazz)
                 }
             }
         }
@@ -20,10 +20,157 @@ import com.intellij.psi.stubs.StubInputStream
 import com.intellij.psi.stubs.StubOutputStream
 import com.tang.intellij.lua.ext.recursionGuard
 import com.tang.intellij.lua.search.SearchContext
+import java.util.*
 import kotlin.contracts.ExperimentalContracts
 import kotlin.contracts.contract
 
-private val displayNameComparator: Comparator<ITy> = Comparator { a, b -> a.displayName.compareTo(b.displayName) }
+private fun sortedByDisplayName(tys: Collection<ITy>): LinkedHashSet<ITy> {
+    // Display names are rendered once per type, rather than once per comparison.
+    val sortedTys = tys.map { Pair(it.displayName, it) }.sortedWith { a, b -> a.first.compareTo(b.first) }
+    val set = LinkedHashSet<ITy>(sortedTys.size)
+    sortedTys.forEach { set.add(it.second) }
+    return set
+}
+
+/**
+ * Accumulates the members of a union, discarding members that are covariant of existing members.
+ *
+ * Primitive literals are bucketed by primitive kind, and deduplicated by hash. A literal can only ever be contravariant of itself, so literals are
+ * never compared structurally against one another. Likewise, primitives are only compared against literals of the same primitive kind.
+ * Consequently, large unions of literals are constructed in near-linear time.
+ *
+ * Other types are bucketed by kind. Arrays, functions, nil and void are only ever related to types of the same kind, or to types of kinds that
+ * may resolve to (or accept) types of any kind, so they're never compared against buckets of other such kinds.
+ */
+private class TyUnionBuilder(private val context: SearchContext) {
+    companion object {
+        private const val VARIANCE_FLAGS = TyVarianceFlags.STRICT_NIL or TyVarianceFlags.STRICT_UNKNOWN or TyVarianceFlags.NON_STRUCTURAL
+
+        // Kinds of types that can never be covariant of a primitive literal.
+        private val NON_LITERAL_SUPER_KINDS = EnumSet.of(TyKind.Primitive, TyKind.Array, TyKind.Function, TyKind.Nil, TyKind.Void, TyKind.Unknown)
+
+        // Kinds of types that may be related to types of any kind e.g. primitive tables accept arrays, and aliases resolve to anything.
+        private val UNPARTITIONED_KINDS = EnumSet.complementOf(EnumSet.of(TyKind.Array, TyKind.Function, TyKind.Nil, TyKind.Void, TyKind.PrimitiveLiteral))
+    }
+
+    private val literalBuckets = EnumMap<TyPrimitiveKind, LinkedHashSet<TyPrimitiveLiteral>>(TyPrimitiveKind::class.java)
+
+    // Mapping display names to types, by kind
+    private val others = EnumMap<TyKind, LinkedHashMap<String, ITy>>(TyKind::class.java)
+
+    /**
+     * Returns the buckets of [others] whose types could be contravariant, or covariant, of a type of [kind].
+     */
+    private fun relatedOthers(kind: TyKind): List<LinkedHashMap<String, ITy>> {
+        return if (UNPARTITIONED_KINDS.contains(kind)) {
+            others.values.toList()
+        } else {
+            others.entries.mapNotNull { (bucketKind, bucket) ->
+                if (bucketKind == kind || UNPARTITIONED_KINDS.contains(bucketKind)) bucket else null
+            }
+        }
+    }
+
+    /**
+     * Whether a primitive literal could be covariant of [ty]. Classes that don't resolve to another type are never contravariant of a literal.
+     */
+    private fun mayAcceptLiterals(ty: ITy): Boolean {
+        if (NON_LITERAL_SUPER_KINDS.contains(ty.kind)) {
+            return false
+        }
+
+        if (ty is TyClass && !ty.isUnknown) {
+            ty.lazyInit(context)
+            return Ty.resolve(context, ty) !== ty
+        }
+
+        return true
+    }
+
+    private fun isContravariant(guardTy: ITy, target: ITy, source: ITy): Boolean {
+        return recursionGuard(guardTy, {
+            Ty.memoizedContravariantOf(context, target, source, VARIANCE_FLAGS)
+        }) ?: false
+    }
+
+    fun add(ty: ITy) {
+        if (ty is TyPrimitiveLiteral) {
+            addLiteral(ty)
+        } else {
+            addOther(ty)
+        }
+    }
+
+    private fun addLiteral(ty: TyPrimitiveLiteral) {
+        val bucket = literalBuckets.getOrPut(ty.primitiveKind) { LinkedHashSet() }
+
+        val relatedOthers = relatedOthers(TyKind.PrimitiveLiteral)
+
+        if (bucket.contains(ty) || relatedOthers.any { it.values.any { childTy -> isContravariant(childTy, childTy, ty) } }) {
+            return
+        }
+
+        if (ty == Primitives.TRUE || ty == Primitives.FALSE) {
+            val oppositeTy = if (ty == Primitives.TRUE) Primitives.FALSE else Primitives.TRUE
+
+            if (bucket.remove(oppositeTy)) {
+                others.getOrPut(TyKind.Primitive) { LinkedHashMap() }.putIfAbsent(Primitives.BOOLEAN.displayName, Primitives.BOOLEAN)
+            } else {
+                bucket.add(ty)
+            }
+
+            return
+        }
+
+        relatedOthers.forEach { it.values.removeIf { childTy -> isContravariant(childTy, ty, childTy) } }
+        bucket.add(ty)
+    }
+
+    private fun addOther(ty: ITy) {
+        val displayName = ty.displayName
+        val kindOthers = others.getOrPut(ty.kind) { LinkedHashMap() }
+
+        if (kindOthers.containsKey(displayName)) {
+            return
+        }
+
+        val relatedOthers = relatedOthers(ty.kind)
+        val covariant = relatedOthers.any { it.values.any { childTy -> isContravariant(childTy, childTy, ty) } }
+                || (mayAcceptLiterals(ty) && literalBuckets.values.any { bucket ->
+                    bucket.any { childTy -> isContravariant(childTy, childTy, ty) }
+                })
+
+        if (covariant) {
+            return
+        }
+
+        relatedOthers.forEach { it.values.removeIf { childTy -> isContravariant(childTy, ty, childTy) } }
+
+        if (ty is ITyPrimitive) {
+            literalBuckets[ty.primitiveKind]?.removeIf { childTy -> isContravariant(childTy, ty, childTy) }
+        } else if (mayAcceptLiterals(ty)) {
+            literalBuckets.values.forEach { bucket ->
+                bucket.removeIf { childTy -> isContravariant(childTy, ty, childTy) }
+            }
+        }
+
+        kindOthers[displayName] = ty
+    }
+
+    fun build(): ITy {
+        val size = others.values.sumOf { it.size } + literalBuckets.values.sumOf { it.size }
+        val childTys = ArrayList<ITy>(size)
+
+        others.values.forEach { childTys.addAll(it.values) }
+        literalBuckets.values.forEach { childTys.addAll(it) }
+
+        return when (childTys.size) {
+            0 -> Primitives.VOID
+            1 -> childTys.first()
+            else -> TyFactory.union(childTys)
+        }
+    }
+}
 
 class TyUnion : Ty {
     private val childSet: LinkedHashSet<ITy>
@@ -36,7 +183,7 @@ class TyUnion : Ty {
         this.childSet = childSet
     }
 
-    constructor(childTys: Collection<ITy>) : this(linkedSetOf<ITy>().apply { addAll(childTys.sortedWith(displayNameComparator)) })
+    constructor(childTys: Collection<ITy>) : this(sortedByDisplayName(childTys))
 
     fun getChildTypes() = childSet
 
@@ -109,7 +256,8 @@ class TyUnion : Ty {
     }
 
     override fun contravariantOf(context: SearchContext, other: ITy, varianceFlags: Int): Boolean {
-        return super.contravariantOf(context, other, varianceFlags)
+        return this === other
+                || super.contravariantOf(context, other, varianceFlags)
                 || childSet.any { type -> type.contravariantOf(context, other, varianceFlags) }
     }
 
@@ -171,6 +319,10 @@ class TyUnion : Ty {
     }
 
     override fun equals(context: SearchContext, other: ITy, equalityFlags: Int): Boolean {
+        if (this === other) {
+            return true
+        }
+
         val resolvedTy = childSet.reduce { resolved, ty ->
             resolved.union(context, Ty.resolve(context, ty))
         }
@@ -207,7 +359,7 @@ class TyUnion : Ty {
     }
 
     override fun equals(other: Any?): Boolean {
-        return other is TyUnion && childSet.equals(other.childSet)
+        return this === other || (other is TyUnion && childSet.equals(other.childSet))
     }
 
     override fun hashCode(): Int {
@@ -308,46 +460,9 @@ class TyUnion : Ty {
                 return Primitives.VOID
             }
 
-            val childSet = sortedSetOf(displayNameComparator)
-
-            expandedTys.forEach {
-                val varianceFlags = TyVarianceFlags.STRICT_NIL or TyVarianceFlags.STRICT_UNKNOWN or TyVarianceFlags.NON_STRUCTURAL
-                val covariant = childSet.contains(it) || childSet.find { childTy ->
-                    recursionGuard(childTy, {
-                        childTy.contravariantOf(context, it, varianceFlags)
-                    }) ?: false
-                } != null
-
-                if (!covariant) {
-                    if (it == Primitives.TRUE) {
-                        if (childSet.remove(Primitives.FALSE)) {
-                            childSet.add(Primitives.BOOLEAN)
-                        } else {
-                            childSet.add(Primitives.TRUE)
-                        }
-                    } else if (it == Primitives.FALSE) {
-                        if (childSet.remove(Primitives.TRUE)) {
-                            childSet.add(Primitives.BOOLEAN)
-                        } else {
-                            childSet.add(Primitives.FALSE)
-                        }
-                    } else {
-                        childSet.removeIf { childTy ->
-                            recursionGuard(childTy, {
-                                it.contravariantOf(context, childTy, varianceFlags)
-                            }) ?: false
-                        }
-
-                        childSet.add(it)
-                    }
-                }
-            }
-
-            return if (childSet.size == 1) {
-                childSet.first()
-            } else {
-                TyUnion(childSet)
-            }
+            val builder = TyUnionBuilder(context)
+            expandedTys.forEach { builder.add(it) }
+            return builder.build()
         }
 
         fun getPerfectClass(ty: ITy): ITyClass? {
@@ -381,6 +496,6 @@ object TyUnionSerializer : TySerializer<TyUnion>() {
             tys.add(Ty.deserialize(stream))
         }
 
-        return TyUnion(tys)
+        return TyFactory.union(tys)
     }
 }
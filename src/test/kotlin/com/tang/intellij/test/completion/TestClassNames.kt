@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2017. tangzx(love.tangzx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.completion
+
+import com.intellij.openapi.command.WriteCommandAction
+import com.tang.intellij.lua.stubs.index.LuaClassIndex
+import com.tang.intellij.test.LuaTestBase
+
+class TestClassNames : LuaTestBase() {
+    private fun classNames(): Set<String> {
+        val names = mutableSetOf<String>()
+        LuaClassIndex.processKeys(project) {
+            names.add(it)
+            true
+        }
+        return names
+    }
+
+    fun testClassNames() {
+        repeat(20) { fileIndex ->
+            myFixture.addFileToProject("classes$fileIndex.lua", (0 until 100).joinToString("\n") {
+                "---@class Class${fileIndex}_$it\nlocal Class${fileIndex}_$it = {}"
+            })
+        }
+
+        val file = myFixture.configureByText("removed.lua", "---@class Removed\nlocal Removed = {}")
+
+        val names = classNames()
+
+        assertTrue(names.containsAll(listOf("Class0_0", "Class19_99", "Removed")))
+
+        // Served by the cached names.
+        assertEquals(names, classNames())
+
+        WriteCommandAction.runWriteCommandAction(project) {
+            file.delete()
+        }
+
+        assertFalse(classNames().contains("Removed"))
+    }
+}
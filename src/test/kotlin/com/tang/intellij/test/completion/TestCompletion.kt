@@ -17,8 +17,15 @@
 package com.tang.intellij.test.completion
 
 import com.intellij.codeInsight.completion.CompletionType
+import com.intellij.codeInsight.lookup.LookupElementPresentation
+import com.intellij.openapi.command.WriteCommandAction
 import com.intellij.openapi.fileEditor.FileDocumentManager
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.util.PsiTreeUtil
 import com.tang.intellij.lua.editor.completion.LuaLookupElement
+import com.tang.intellij.lua.psi.LuaLocalDef
+import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.ty.Primitives
 import com.tang.intellij.test.fileTreeFromText
 import java.util.*
 
@@ -57,6 +64,63 @@ class TestCompletion : TestCompletionBase() {
         assertTrue(strings!!.containsAll(Arrays.asList("aaa", "bbb", "ccc")))
     }
 
+    fun testGlobalCompletionAfterChange() {
+        val globals = myFixture.addFileToProject("changing.lua", "gChanging1 = 1\ngChanging2 = 2")
+        myFixture.configureByText("test.lua", "gChanging<caret>")
+        myFixture.complete(CompletionType.BASIC, 1)
+        assertEquals(listOf("gChanging1", "gChanging2"), myFixture.lookupElementStrings?.sorted())
+
+        WriteCommandAction.runWriteCommandAction(project) {
+            val documentManager = PsiDocumentManager.getInstance(project)
+            val document = documentManager.getDocument(globals)!!
+            document.setText("gChanging2 = 2\ngChanging3 = 3")
+            documentManager.commitDocument(document)
+        }
+
+        myFixture.configureByText("test.lua", "gChanging<caret>")
+        myFixture.complete(CompletionType.BASIC, 1)
+        assertEquals(listOf("gChanging2", "gChanging3"), myFixture.lookupElementStrings?.sorted())
+    }
+
+    fun testParentMemberShadowsGrandparentMember() {
+        myFixture.configureByText("test.lua", """
+            ---@class GrandParent
+            ---@field overridden string
+            ---@field shadowed string
+            ---@field inherited boolean
+            local GrandParent = {}
+
+            ---@class Parent : GrandParent
+            ---@field overridden string
+            ---@field shadowed number
+            local Parent = {}
+
+            ---@class Child : Parent
+            local Child = {}
+
+            ---@type Child
+            local child
+            child.<caret>
+        """.trimIndent())
+
+        val elements = myFixture.completeBasic().filterIsInstance<LuaLookupElement>()
+        val typeTexts = elements.groupBy({ it.lookupString }) {
+            val presentation = LookupElementPresentation()
+            it.renderElement(presentation)
+            presentation.typeText
+        }
+
+        // Each member is offered once, the nearest ancestor's declaration hides the grandparent's.
+        assertEquals(listOf("string"), typeTexts["overridden"])
+        assertEquals(listOf("number"), typeTexts["shadowed"])
+        assertEquals(listOf("boolean"), typeTexts["inherited"])
+
+        val context = SearchContext.get(project)
+        val childTy = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaLocalDef::class.java).first { it.name == "child" }.guessType(context)!!
+        assertEquals(Primitives.NUMBER, childTy.findMember(context, "shadowed")?.guessType(context))
+        assertEquals(Primitives.BOOLEAN, childTy.findMember(context, "inherited")?.guessType(context))
+    }
+
     fun testSelfCompletion() {
         myFixture.configureByFiles("testSelf.lua")
         myFixture.complete(CompletionType.BASIC, 1)
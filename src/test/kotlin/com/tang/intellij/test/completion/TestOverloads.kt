@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017. tangzx(love.tangzx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.completion
+
+import com.intellij.psi.PsiFile
+import com.intellij.psi.util.PsiTreeUtil
+import com.tang.intellij.lua.psi.LuaCallExpr
+import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.ty.TyMultipleResults
+import com.tang.intellij.test.LuaTestBase
+
+class TestOverloads : LuaTestBase() {
+    private val declaration = """
+        ---@overload fun(a: string): string
+        ---@overload fun(a: boolean): boolean
+        ---@overload fun(a: number, b: number): table
+        ---@overload fun(a: string, b: string, c: string): function
+        ---@param a number
+        ---@return number
+        local function f(a)
+            return a
+        end
+    """.trimIndent()
+
+    private fun callTypes(file: PsiFile): List<String> {
+        val context = SearchContext.get(project)
+
+        return PsiTreeUtil.findChildrenOfType(file, LuaCallExpr::class.java).map {
+            TyMultipleResults.getResult(context, it.guessType(context)!!, 0).displayName
+        }
+    }
+
+    fun testOverloadResolution() {
+        val file = myFixture.configureByText("overloads.lua", """
+            $declaration
+            local r1 = f("s")
+            local r2 = f(true)
+            local r3 = f(1, 2)
+            local r4 = f(1)
+            local r5 = f("a", "b", "c")
+        """.trimIndent())
+
+        val expected = listOf("string", "boolean", "table", "number", "function")
+
+        // The second pass is served by the per-call site memo.
+        assertEquals(expected, callTypes(file))
+        assertEquals(expected, callTypes(file))
+    }
+
+    fun testOverloadedCallSites() {
+        val calls = (0 until 500).joinToString("\n") { i ->
+            when (i % 4) {
+                0 -> "local r$i = f($i)"
+                1 -> "local r$i = f(\"s$i\")"
+                2 -> "local r$i = f($i, $i)"
+                else -> "local r$i = f(\"a\", \"b\", \"c$i\")"
+            }
+        }
+        val file = myFixture.configureByText("calls.lua", "$declaration\n$calls")
+
+        val first = callTypes(file)
+
+        assertEquals(listOf("number", "string", "table", "function"), first.take(4))
+        assertEquals(first, callTypes(file))
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.inspections
+
+import com.tang.intellij.lua.codeInsight.inspection.GlobalNameCanBeLocal
+
+class GlobalNameCanBeLocalTest : LuaInspectionsTestBase(GlobalNameCanBeLocal()) {
+
+    fun testUnreferencedGlobal() = checkByText("""
+        <warning>unreferencedGlobal</warning> = 1
+        print(unreferencedGlobal)
+    """)
+
+    fun testGlobalReadInAnotherFile() {
+        myFixture.addFileToProject("other.lua", "print(sharedGlobal)")
+
+        checkByText("""
+            sharedGlobal = 1
+        """)
+    }
+
+    fun testGlobalWrittenInAnotherFile() {
+        myFixture.addFileToProject("other.lua", "otherGlobal = 2")
+
+        checkByText("""
+            otherGlobal = 1
+        """)
+    }
+
+    fun testGlobalReadViaGInAnotherFile() {
+        myFixture.addFileToProject("other.lua", """
+            print(_G.fieldGlobal)
+            print(_G["stringGlobal"])
+        """.trimIndent())
+
+        checkByText("""
+            fieldGlobal = 1
+            stringGlobal = 2
+        """)
+    }
+
+    fun testGlobalReadInModuleFile() {
+        myFixture.addFileToProject("module.lua", """
+            module("someModule", package.seeall)
+            memberOfModule = 1
+            print(moduleGlobal, memberOfModule)
+        """.trimIndent())
+
+        checkByText("""
+            moduleGlobal = 1
+        """)
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2017. tangzx(love.tangzx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.inspections
+
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiFile
+import com.intellij.psi.util.PsiTreeUtil
+import com.tang.intellij.lua.psi.LuaCallExpr
+import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.ty.Primitives
+import com.tang.intellij.lua.ty.TyMultipleResults
+import com.tang.intellij.test.LuaTestBase
+
+class ReturnTypeInferenceTest : LuaTestBase() {
+    private val utility = """
+        local function util(a)
+            if a then
+                return "value"
+            end
+            return "other"
+        end
+    """.trimIndent()
+
+    private fun returnsString(file: PsiFile): Boolean {
+        val context = SearchContext.get(project)
+
+        return PsiTreeUtil.findChildrenOfType(file, LuaCallExpr::class.java).all {
+            val ty = TyMultipleResults.getResult(context, it.guessType(context)!!, 0)
+            Primitives.STRING.contravariantOf(context, ty, 0)
+        }
+    }
+
+    fun testReturnTyInvalidatedOnChange() {
+        val file = myFixture.configureByText("util.lua", "$utility\nlocal r = util(1)")
+        assertTrue(returnsString(file))
+
+        val documentManager = PsiDocumentManager.getInstance(project)
+        val document = documentManager.getDocument(file)!!
+
+        WriteCommandAction.runWriteCommandAction(project) {
+            val offset = document.text.indexOf("\"other\"")
+            document.replaceString(offset, offset + "\"other\"".length, "1")
+            documentManager.commitDocument(document)
+        }
+
+        assertFalse(returnsString(file))
+    }
+
+    fun testRepeatedCallsInferredOnce() {
+        val calls = (0 until 1000).joinToString("\n") { "local r$it = util($it)" }
+        val file = myFixture.configureByText("calls.lua", "$utility\n$calls")
+
+        assertTrue(returnsString(file))
+        assertTrue(returnsString(file))
+    }
+}
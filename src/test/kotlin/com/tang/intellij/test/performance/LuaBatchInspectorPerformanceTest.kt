@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.performance
+
+import com.intellij.psi.impl.PsiModificationTrackerImpl
+import com.intellij.psi.util.PsiModificationTracker
+import com.intellij.testFramework.PlatformTestUtil
+import com.tang.intellij.lua.codeInsight.inspection.AssignTypeInspection
+import com.tang.intellij.lua.codeInsight.inspection.MatchFunctionSignatureInspection
+import com.tang.intellij.lua.codeInsight.inspection.ReturnTypeInspection
+import com.tang.intellij.lua.codeInsight.inspection.batch.LuaBatchInspector
+import com.tang.intellij.lua.codeInsight.inspection.batch.LuaBatchReportWriter
+import com.tang.intellij.test.LuaTestBase
+import java.io.StringWriter
+
+class LuaBatchInspectorPerformanceTest : LuaTestBase() {
+    private val tools = arrayOf(AssignTypeInspection(), MatchFunctionSignatureInspection(), ReturnTypeInspection())
+
+    private fun source(fileIndex: Int): String {
+        return (0 until 50).joinToString("\n") { i ->
+            """
+            |---@class Class${fileIndex}_$i
+            |---@field value number
+            |local Class${fileIndex}_$i = {}
+            |
+            |---@param a number
+            |---@param b string
+            |---@return number
+            |function Class${fileIndex}_$i.fn(a, b)
+            |    ---@type number
+            |    local n = b
+            |    Class${fileIndex}_$i.fn("wrong", 1)
+            |    return a + Class${fileIndex}_$i.value
+            |end
+            |""".trimMargin()
+        }
+    }
+
+    private fun inspect(threads: Int): LuaBatchInspector.Report {
+        // Discard cached inferred types so each run does the same work.
+        (PsiModificationTracker.getInstance(project) as PsiModificationTrackerImpl).incCounter()
+
+        val inspector = LuaBatchInspector(project, threads)
+        val inspections = LuaBatchInspector.enabledInspections(project, tools.map { it.shortName })
+        return inspector.run(LuaBatchInspector.projectFiles(project), inspections)
+    }
+
+    private fun addFiles() {
+        repeat(32) {
+            myFixture.addFileToProject("batch$it.lua", source(it))
+        }
+
+        myFixture.enableInspections(*tools)
+    }
+
+    fun testParallelMatchesSequential() {
+        addFiles()
+
+        val sequential = inspect(1)
+        val parallel = inspect(Runtime.getRuntime().availableProcessors())
+
+        assertEquals(32, sequential.fileCount)
+        assertEquals(tools.size, sequential.inspections.size)
+        assertFalse(sequential.problems.isEmpty())
+        assertEquals(sequential.problems, parallel.problems)
+
+        val sarif = StringWriter()
+        LuaBatchReportWriter.write(parallel, LuaBatchReportWriter.Format.SARIF, sarif)
+        assertTrue(sarif.toString().contains("\"ruleId\": \"${parallel.problems.first().inspection}\""))
+    }
+
+    fun testSequentialPerformance() {
+        addFiles()
+
+        PlatformTestUtil.startPerformanceTest("Batch inspection on 1 thread", 8000) {
+            inspect(1)
+        }.attempts(3).assertTiming()
+    }
+
+    fun testParallelPerformance() {
+        addFiles()
+
+        val threads = Runtime.getRuntime().availableProcessors()
+
+        // Files are inspected independently, so time should fall in proportion to the thread count (up to the 32 files).
+        PlatformTestUtil.startPerformanceTest("Batch inspection on $threads threads", 8000 / minOf(threads, 32)) {
+            inspect(threads)
+        }.attempts(3).assertTiming()
+    }
+}
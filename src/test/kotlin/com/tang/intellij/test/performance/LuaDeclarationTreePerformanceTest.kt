@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.performance
+
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
+import com.intellij.psi.stubs.StubElement
+import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.testFramework.PlatformTestUtil
+import com.tang.intellij.lua.psi.*
+import com.tang.intellij.test.LuaTestBase
+
+class LuaDeclarationTreePerformanceTest : LuaTestBase() {
+    private fun source(functionCount: Int): String {
+        return "local M = {}\n" + (0 until functionCount).joinToString("") { i ->
+            """
+            |function M.fn$i(a, b)
+            |    local value$i = a + b
+            |    return value$i
+            |end
+            |""".trimMargin()
+        }
+    }
+
+    private fun insert(file: PsiFile, offset: Int, text: String) {
+        val documentManager = PsiDocumentManager.getInstance(project)
+        val document = documentManager.getDocument(file)!!
+
+        WriteCommandAction.runWriteCommandAction(project) {
+            document.insertString(offset, text)
+            documentManager.commitDocument(document)
+        }
+    }
+
+    private fun resolveNameAt(file: PsiFile, offset: Int): PsiElement? {
+        val nameExpr = PsiTreeUtil.findElementOfClassAtOffset(file, offset, LuaNameExpr::class.java, false)!!
+        return resolveLocal(null, nameExpr)
+    }
+
+    private fun bodyOffset(file: PsiFile, functionIndex: Int): Int {
+        return file.text.indexOf("    local value$functionIndex = ")
+    }
+
+    fun testIncrementalUpdateResolves() {
+        val file = myFixture.configureByText("incremental.lua", source(20))
+        LuaDeclarationTree.get(file)
+
+        insert(file, bodyOffset(file, 10), "    local added = 1\n    print(added)\n")
+
+        val readOffset = file.text.indexOf("print(added)") + "print(".length
+        val added = resolveNameAt(file, readOffset)
+        assertTrue(added is LuaLocalDef && added.name == "added")
+
+        // Declarations following the edited scope are found at their shifted offsets.
+        val laterReadOffset = file.text.indexOf("return value15") + "return ".length
+        val later = resolveNameAt(file, laterReadOffset)
+        assertTrue(later is LuaLocalDef && later.name == "value15")
+
+        // The added local isn't visible in other functions.
+        insert(file, bodyOffset(file, 12), "    print(added)\n")
+        val otherReadOffset = file.text.lastIndexOf("print(added)") + "print(".length
+        assertNull(resolveNameAt(file, otherReadOffset))
+    }
+
+    /**
+     * Benchmarks bringing the trees of a large file up to date after each [edit], made before each attempt.
+     */
+    private fun benchmarkUpdate(what: String, expectedMs: Int, edit: (file: PsiFile, iteration: Int) -> Unit) {
+        val file = myFixture.configureByText("functions.lua", source(2000))
+        var iteration = 0
+
+        PlatformTestUtil.startPerformanceTest(what, expectedMs) {
+            LuaDeclarationTree.get(file)
+            LuaScopedTypeTree.get(file)
+        }.setup {
+            LuaDeclarationTree.get(file)
+            LuaScopedTypeTree.get(file)
+            edit(file, iteration++)
+        }.attempts(10).assertTiming()
+    }
+
+    fun testFunctionBodyEditUpdate() {
+        benchmarkUpdate("Declaration tree update after editing a function body", 20) { file, iteration ->
+            insert(file, bodyOffset(file, 1000), "    local edit$iteration = $iteration\n")
+        }
+    }
+
+    fun testTopLevelEditRebuild() {
+        benchmarkUpdate("Declaration tree rebuild after editing the top level scope", 400) { file, iteration ->
+            insert(file, 0, "local top$iteration = $iteration\n")
+        }
+    }
+
+    fun testResolveInStubBackedFile() {
+        val file = myFixture.addFileToProject("module.lua", """
+            local M = {}
+            local other = {}
+            M.x = 1
+            function M:method() end
+            return M
+        """.trimIndent()) as LuaPsiFile
+
+        // Without its AST loaded, the file's tree is built from stubs.
+        assertFalse(file.isContentsLoaded)
+
+        val indexExprs = mutableListOf<LuaIndexExpr>()
+        val stubs = ArrayDeque<StubElement<*>>()
+        stubs.add(file.stub!!)
+
+        while (stubs.isNotEmpty()) {
+            val stub = stubs.removeFirst()
+            (stub.psi as? LuaIndexExpr)?.let { indexExprs.add(it) }
+            stubs.addAll(stub.childrenStubs)
+        }
+
+        val tree = LuaDeclarationTree.get(file)
+        val field = indexExprs.first { it.name == "x" }
+        val declaration = tree.find(field)
+
+        // The field is only found if `local M` was numbered before the assignment that follows it.
+        assertNotNull(declaration)
+        assertEquals("x", declaration!!.name)
+    }
+}
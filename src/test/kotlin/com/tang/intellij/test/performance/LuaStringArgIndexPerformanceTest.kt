@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.performance
+
+import com.intellij.testFramework.PlatformTestUtil
+import com.tang.intellij.lua.psi.LuaElementFactory
+import com.tang.intellij.lua.stubs.index.LuaStringArgIndex
+import com.tang.intellij.lua.stubs.index.LuaStringArgIndex.LuaCallOccurrence
+import com.tang.intellij.test.LuaTestBase
+
+class LuaStringArgIndexPerformanceTest : LuaTestBase() {
+    private val sample = """
+        local a = require("module.a")
+        local b = require "module.b"
+        print('hello', "world", 1, "x")
+        obj:method("first", "second")
+        obj.field.call([[long string]], nested("inner", 'other'), "tail")
+        tbl["key"]("bracketed")
+        obj:method "string call"
+        call("not" .. "literal", ("paren"), "last")
+        local t = { "in table", call("in table call") }
+        local s = ("abc"):rep(2)
+        function obj.decl(p1, p2) return p1 end
+        local function fn() end
+        fn()("unnamed callee")
+        -- comment("ignored")
+        --[[ block("ignored") ]]
+        event:fire("ok", "fine")
+        after(function() local a, b = 1, 2 end, "closure")
+        each(function(p) if p then return p, "inner" end repeat until true end, "first", "second")
+    """.trimIndent()
+
+    private fun normalize(map: Map<String, LuaCallOccurrence>): Map<String, List<LuaStringArgIndex.LuaCallArg>> {
+        return map.mapValues { (_, occ) -> occ.args.sortedBy { it.offset } }
+    }
+
+    private fun largeFile(): String {
+        return (0 until 2000).joinToString("\n") { i ->
+            sample.replace("module", "module$i")
+        }
+    }
+
+    fun testTokenIndexerMatchesPsiIndexer() {
+        val file = myFixture.configureByText("sample.lua", sample)
+
+        val fromPsi = normalize(LuaStringArgIndex.indexPsi(file))
+        val fromTokens = normalize(LuaStringArgIndex.indexTokens(sample))
+
+        assertEquals(fromPsi, fromTokens)
+        assertEquals(listOf("module.a", "module.b"), fromTokens["require"]?.map { it.argString })
+        assertEquals(listOf(1, 2, 1), fromTokens["method"]?.map { it.argIndex })
+        assertEquals(listOf(1), fromTokens["after"]?.map { it.argIndex })
+        assertEquals(listOf(1, 2), fromTokens["each"]?.map { it.argIndex })
+    }
+
+    fun testTokenIndexerMatchesPsiIndexerOnLargeFile() {
+        val text = largeFile()
+        val file = myFixture.configureByText("large.lua", text)
+
+        assertEquals(normalize(LuaStringArgIndex.indexPsi(file)), normalize(LuaStringArgIndex.indexTokens(text)))
+    }
+
+    fun testPsiIndexerPerformance() {
+        val text = largeFile()
+
+        // Indexing from PSI requires the file to be parsed.
+        PlatformTestUtil.startPerformanceTest("String argument indexing from PSI", 4000) {
+            LuaStringArgIndex.indexPsi(LuaElementFactory.createFile(project, text))
+        }.attempts(3).assertTiming()
+    }
+
+    fun testTokenIndexerPerformance() {
+        val text = largeFile()
+
+        PlatformTestUtil.startPerformanceTest("String argument indexing from tokens", 400) {
+            LuaStringArgIndex.indexTokens(text)
+        }.attempts(3).assertTiming()
+    }
+}
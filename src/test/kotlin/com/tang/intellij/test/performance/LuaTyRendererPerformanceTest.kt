@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.performance
+
+import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.testFramework.PlatformTestUtil
+import com.tang.intellij.lua.psi.LuaLocalDef
+import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.ty.ITy
+import com.tang.intellij.lua.ty.TyRenderer
+import com.tang.intellij.lua.ty.TyUnion
+import com.tang.intellij.test.LuaTestBase
+
+class LuaTyRendererPerformanceTest : LuaTestBase() {
+    private val declarations = """
+        ---@class Box<T>
+        ---@field value T
+        local Box
+
+        ---@alias Handler fun(box: Box<string>, ...: number): Box<number> | nil
+
+        ---@type table<string, Box<number | string | boolean>>[]
+        local nestedGenerics
+
+        ---@type (Box<string> | Handler | {name: string, size: number, tags: string[]})[]
+        local mixedUnion
+
+        ---@type fun(a: Box<Box<Box<Box<Box<string>>>>>, b: Handler): table<number, Box<string | nil>>
+        local deepFunction
+
+        ---@type {a: {b: {c: {d: {e: {f: string}}}}}, g: Box<number>[]}
+        local deepTable
+    """.trimIndent()
+
+    private fun declaredTypes(): List<ITy> {
+        val file = myFixture.configureByText("types.lua", declarations)
+        val context = SearchContext.get(project)
+
+        return PsiTreeUtil.findChildrenOfType(file, LuaLocalDef::class.java).mapNotNull { it.guessType(context) }
+    }
+
+    fun testCachedRenderMatchesFreshRender() {
+        val tys = declaredTypes()
+        val context = SearchContext.get(project)
+        val union = TyUnion.union(context, tys)
+        val renderer = TyRenderer()
+
+        // Render the members first, so that rendering the union (and the members again) is served by the cache.
+        (tys + union + tys).forEach {
+            assertEquals(TyRenderer().render(it), renderer.render(it))
+        }
+    }
+
+    fun testRepeatedRenders() {
+        val tys = declaredTypes()
+        val context = SearchContext.get(project)
+        val union = TyUnion.union(context, tys)
+        val renderer = TyRenderer()
+        val rendered = renderer.render(union)
+
+        repeat(10) {
+            assertEquals(rendered, renderer.render(union))
+        }
+    }
+
+    fun testFreshRendererPerformance() {
+        val union = TyUnion.union(SearchContext.get(project), declaredTypes())
+
+        PlatformTestUtil.startPerformanceTest("Rendering nested generics/unions 200 times, fresh renderer", 500) {
+            repeat(200) {
+                TyRenderer().render(union)
+            }
+        }.attempts(5).assertTiming()
+    }
+
+    fun testCachedRendererPerformance() {
+        val union = TyUnion.union(SearchContext.get(project), declaredTypes())
+        val renderer = TyRenderer()
+
+        PlatformTestUtil.startPerformanceTest("Rendering nested generics/unions 200 times, cached renderer", 50) {
+            repeat(200) {
+                renderer.render(union)
+            }
+        }.attempts(5).assertTiming()
+    }
+}
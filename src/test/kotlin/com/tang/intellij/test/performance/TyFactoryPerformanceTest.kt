@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.performance
+
+import com.intellij.psi.stubs.StubElement
+import com.tang.intellij.lua.psi.LuaPsiFile
+import com.tang.intellij.lua.stubs.LuaDocTagFieldStub
+import com.tang.intellij.lua.ty.*
+import com.tang.intellij.test.LuaTestBase
+import java.util.*
+
+class TyFactoryPerformanceTest : LuaTestBase() {
+    private val fileCount = 50
+    private val fieldCount = 20
+
+    private fun source(className: String): String {
+        return "---@class $className\n" + (0 until fieldCount).joinToString("") {
+            "---@field map$it table<string, number | boolean>\n---@field list$it (string | number)[]\n"
+        } + "local $className = {}\n"
+    }
+
+    /**
+     * Loads the stubs of freshly added (thus unloaded) files, returning the field types deserialized from them.
+     */
+    private fun fieldTypes(prefix: String): List<ITy> {
+        val tys = mutableListOf<ITy>()
+
+        repeat(fileCount) { fileIndex ->
+            val file = myFixture.addFileToProject("$prefix$fileIndex.lua", source("${prefix}Class$fileIndex")) as LuaPsiFile
+            val stubs = ArrayDeque<StubElement<*>>()
+            stubs.add(file.stub!!)
+
+            while (stubs.isNotEmpty()) {
+                val stub = stubs.removeFirst()
+                (stub as? LuaDocTagFieldStub)?.let { tys.add(it.valueTy) }
+                stubs.addAll(stub.childrenStubs)
+            }
+        }
+
+        return tys
+    }
+
+    private fun children(ty: ITy): List<ITy> {
+        return when (ty) {
+            is TyUnion -> ty.getChildTypes().toList()
+            is TyGeneric -> listOf(ty.base) + ty.args
+            is TyArray -> listOf(ty.base)
+            else -> emptyList()
+        }
+    }
+
+    private fun isStructural(ty: ITy) = ty is TyUnion || ty is TyGeneric || ty is TyArray
+
+    /**
+     * Returns the number of structural types referenced from [tys], counting each reference. This is the number of instances that would be
+     * retained if every type were a distinct instance.
+     */
+    private fun structuralReferences(tys: List<ITy>): Int {
+        return tys.sumOf { ty -> (if (isStructural(ty)) 1 else 0) + structuralReferences(children(ty)) }
+    }
+
+    /**
+     * Returns the structural type instances reachable from [tys], by identity.
+     */
+    private fun structuralInstances(tys: List<ITy>): Set<ITy> {
+        val instances = Collections.newSetFromMap(IdentityHashMap<ITy, Boolean>())
+        val pending = ArrayDeque(tys)
+
+        while (pending.isNotEmpty()) {
+            val ty = pending.removeFirst()
+
+            if (isStructural(ty) && instances.add(ty)) {
+                pending.addAll(children(ty))
+            }
+        }
+
+        return instances
+    }
+
+    fun testInternedInstancesRetained() {
+        val tys = fieldTypes("fields")
+        val references = structuralReferences(tys)
+        val instances = structuralInstances(tys)
+
+        // Were every type distinct, each field would retain its own generic or array (and union) instances.
+        assertTrue(references >= fileCount * fieldCount * 2)
+
+        // Whereas interned, equal types are a single instance, shared by the fields of every file.
+        assertEquals(instances.toSet().size, instances.size)
+        assertTrue(instances.size * fileCount <= references)
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2022
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.performance
+
+import com.intellij.testFramework.PlatformTestUtil
+import com.tang.intellij.lua.search.SearchContext
+import com.tang.intellij.lua.ty.*
+import com.tang.intellij.test.LuaTestBase
+
+class TyUnionPerformanceTest : LuaTestBase() {
+    private fun literals(count: Int): List<ITy> {
+        return (0 until count).map { TyPrimitiveLiteral.getTy(TyPrimitiveKind.String, "literal$it") }
+    }
+
+    fun testLargeLiteralUnion() {
+        val context = SearchContext.get(project)
+        val union = TyUnion.union(context, literals(1000) + listOf(Primitives.NUMBER, Primitives.TABLE))
+
+        assertTrue(union is TyUnion && union.size == 1002)
+
+        // Re-adding existing members leaves the union unchanged.
+        assertEquals(union, TyUnion.union(context, union, TyUnion.union(context, literals(1000))))
+    }
+
+    fun testLiteralUnionScaling() {
+        val context = SearchContext.get(project)
+
+        // Expected timings scale linearly with the member count, quadratic construction would exceed them for the larger unions.
+        listOf(10, 100, 1000).forEach { size ->
+            val tys = literals(size) + listOf(Primitives.NUMBER, Primitives.TABLE)
+
+            PlatformTestUtil.startPerformanceTest("TyUnion.union of $size literals", size / 5) {
+                TyUnion.union(context, tys)
+            }.attempts(5).assertTiming()
+        }
+    }
+
+    fun testLiteralUnionMembers() {
+        val context = SearchContext.get(project)
+
+        val union = TyUnion.union(context, literals(300) + literals(300))
+        assertTrue(union is TyUnion && union.size == 300)
+
+        assertEquals(Primitives.STRING, TyUnion.union(context, literals(300) + Primitives.STRING))
+        assertEquals(Primitives.BOOLEAN, TyUnion.union(context, listOf(Primitives.TRUE, Primitives.FALSE)))
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2017. tangzx(love.tangzx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tang.intellij.test.structure
+
+import com.intellij.icons.AllIcons
+import com.tang.intellij.test.LuaTestBase
+
+class LineMarkerTest : LuaTestBase() {
+    private fun classSource(className: String, superName: String?, methodCount: Int): String {
+        val header = if (superName != null) "---@class $className : $superName\n" else "---@class $className\n"
+        return header + "local $className = {}\n" + (0 until methodCount).joinToString("") {
+            "function $className:method$it()\nend\n"
+        }
+    }
+
+    fun testMethodMarkers() {
+        myFixture.addFileToProject("base.lua", classSource("Base", null, 200))
+        myFixture.configureByText("derived.lua", classSource("Derived", "Base", 100))
+
+        val derivedGutters = myFixture.findAllGutters()
+
+        assertEquals(100, derivedGutters.count { it.icon == AllIcons.Gutter.OverridingMethod })
+        assertEquals(0, derivedGutters.count { it.icon == AllIcons.Gutter.OverridenMethod })
+
+        myFixture.configureByText("base2.lua", classSource("Base2", null, 200))
+        myFixture.addFileToProject("derived2.lua", classSource("Derived2", "Base2", 100))
+
+        val baseGutters = myFixture.findAllGutters()
+
+        // 100 overridden methods, and the class itself.
+        assertEquals(101, baseGutters.count { it.icon == AllIcons.Gutter.OverridenMethod })
+    }
+}